@@ -8,14 +8,14 @@
  */
 package org.cooder.mos;
 
-import org.cooder.mos.device.FileDisk;
+import org.cooder.mos.device.ChannelDisk;
 import org.cooder.mos.shell.Shell;
 
 import java.io.IOException;
 
 public class App {
     public static void main(String[] args) throws IOException {
-        FileDisk disk = new FileDisk("mos-disk");
+        ChannelDisk disk = new ChannelDisk("mos-disk");
         MosSystem.fileSystem().bootstrap(disk, false);
 
         try {
@@ -1,6 +1,7 @@
 package org.cooder.mos;
 
-import org.cooder.mos.device.FileDisk;
+import org.cooder.mos.device.CachedDisk;
+import org.cooder.mos.device.ChannelDisk;
 import org.cooder.mos.ssh.SshServerService;
 
 import java.io.IOException;
@@ -12,7 +13,7 @@ import java.io.IOException;
 public class SshServer {
 
     public static void main(String[] args) throws IOException {
-        FileDisk disk = new FileDisk("mos-disk");
+        CachedDisk disk = new CachedDisk(new ChannelDisk("mos-disk"));
         MosSystem.fileSystem().bootstrap(disk, false);
 
         SshServerService sshServer = new SshServerService();
@@ -31,11 +31,23 @@ public class FileOutputStream extends OutputStream {
         MosSystem.fileSystem().write(fd, d);
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        MosSystem.fileSystem().write(fd, b, off, len);
+    }
+
     @Override
     public void flush() {
         MosSystem.fileSystem().flush(fd);
     }
 
+    /**
+     * 刷新缓冲数据并将文件大小写入目录项，同步到存储设备
+     */
+    public void sync() {
+        MosSystem.fileSystem().sync(fd);
+    }
+
     @Override
     public void close() throws IOException {
         MosSystem.fileSystem().close(fd);
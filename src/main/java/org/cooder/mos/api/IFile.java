@@ -17,6 +17,8 @@ public interface IFile {
 
     boolean delete();
 
+    boolean preallocate(int length);
+
     MosFile[] listFiles();
 
     int length();
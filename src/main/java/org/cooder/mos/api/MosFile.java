@@ -8,9 +8,6 @@
  */
 package org.cooder.mos.api;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.cooder.mos.MosSystem;
 import org.cooder.mos.Utils;
 import org.cooder.mos.fs.FileDescriptor;
@@ -28,6 +25,11 @@ public class MosFile implements IFile {
         fd = MosSystem.fileSystem().find(paths);
     }
 
+    public MosFile(FileDescriptor fd) {
+        this.paths = fd.getPaths();
+        this.fd = fd;
+    }
+
     public String[] getPath() {
         return paths;
     }
@@ -82,15 +84,25 @@ public class MosFile implements IFile {
         return true;
     }
 
+    @Override
+    public boolean preallocate(int length) {
+        if (!exist()) {
+            return false;
+        }
+
+        MosSystem.fileSystem().preallocate(fd, length);
+        return true;
+    }
+
     @Override
     public MosFile[] listFiles() {
-        String[] children = MosSystem.fileSystem().list(fd);
-        
-        List<MosFile> list = new ArrayList<MosFile>();
-        for (String path : children) {
-            list.add(new MosFile(path));
+        FileDescriptor[] children = MosSystem.fileSystem().listFiles(fd);
+
+        MosFile[] files = new MosFile[children.length];
+        for (int i = 0; i < children.length; i++) {
+            files[i] = new MosFile(children[i]);
         }
-        return list.toArray(new MosFile[0]);
+        return files;
     }
 
     @Override
@@ -0,0 +1,100 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.cooder.mos.MosSystem;
+import org.cooder.mos.fs.RandomAccessHandle;
+
+public class RandomAccessFile implements Closeable {
+
+    private final RandomAccessHandle handle;
+
+    /**
+     * @param file 文件
+     * @param mode "r"只读，"rw"读写，读写时文件不存在则创建
+     */
+    public RandomAccessFile(MosFile file, String mode) throws IOException {
+        boolean writable;
+        if ("r".equals(mode)) {
+            writable = false;
+        } else if ("rw".equals(mode)) {
+            writable = true;
+        } else {
+            throw new IllegalArgumentException("illegal mode: " + mode);
+        }
+
+        if (file.isDir()) {
+            throw new IOException(file.getName() + ": is a directory");
+        }
+        handle = MosSystem.fileSystem().openRandomAccess(file.getPath(), writable);
+    }
+
+    public long length() {
+        return handle.length();
+    }
+
+    public long getFilePointer() {
+        return handle.getFilePointer();
+    }
+
+    public void seek(long pos) throws IOException {
+        handle.seek(pos);
+    }
+
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return handle.read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    public int read(byte[] b) throws IOException {
+        return handle.read(b, 0, b.length);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        return handle.read(b, off, len);
+    }
+
+    /**
+     * 从指定位置读取，不改变当前位置
+     */
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        return handle.read(pos, b, off, len);
+    }
+
+    public void write(int b) throws IOException {
+        handle.write(new byte[]{(byte) (b & 0xFF)}, 0, 1);
+    }
+
+    public void write(byte[] b) throws IOException {
+        handle.write(b, 0, b.length);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        handle.write(b, off, len);
+    }
+
+    /**
+     * 在指定位置写入，不改变当前位置
+     */
+    public void write(long pos, byte[] b, int off, int len) throws IOException {
+        handle.write(pos, b, off, len);
+    }
+
+    public void sync() throws IOException {
+        handle.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        handle.close();
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.device;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.cooder.mos.fs.fat16.Layout;
+
+/**
+ * 带扇区缓存的磁盘装饰器。
+ * <p>
+ * 缓存采用2Q淘汰策略：首次访问的扇区进入FIFO队列A1in，被淘汰后只保留索引于A1out；
+ * 再次访问A1out中的扇区才会进入LRU队列Am。一次性的顺序扫描因此不会冲掉热点扇区。
+ * <p>
+ * FAT区和根目录区默认常驻，目录簇可通过{@link #pin(int, int)}常驻。目录簇的常驻扇区计入缓存容量，最多占用一半，
+ * 超出时不再常驻，按普通扇区缓存。写策略由{@link WritePolicy}决定，默认写穿透；
+ * 写回模式下写操作只修改缓存并标记脏扇区，在淘汰、{@link #sync()}或关闭时按扇区顺序合并写回，进程异常退出时未写回的数据会丢失。
+ * 超过{@link #BYPASS_SECTORS}的非常驻批量读写直接访问磁盘，直接写入前先写回全部脏扇区，磁盘上的写入顺序与调用顺序一致。
+ */
+public class CachedDisk implements IDisk {
+
+    /**
+     * 写策略
+     */
+    public enum WritePolicy {
+        /**
+         * 写入同时更新缓存和磁盘
+         */
+        WRITE_THROUGH,
+
+        /**
+         * 写入只更新缓存，在淘汰、{@link IDisk#sync()}或关闭时写回磁盘
+         */
+        WRITE_BACK
+    }
+
+    /**
+     * 默认缓存16384个扇区(8M)
+     */
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    /**
+     * 批量读写超过该扇区数时不进入缓存
+     */
+    public static final int BYPASS_SECTORS = Layout.SECTORS_PER_CLUSTER / 2;
+
+    private final IDisk disk;
+    private final WritePolicy writePolicy;
+    private final int capacity;
+    private final int inCapacity;
+    private final int outCapacity;
+    private final int pinCapacity;
+
+    private final LinkedHashMap<Integer, byte[]> a1in = new LinkedHashMap<>();
+    private final LinkedHashSet<Integer> a1out = new LinkedHashSet<>();
+    private final LinkedHashMap<Integer, byte[]> am = new LinkedHashMap<>();
+    private final Map<Integer, byte[]> pinned = new HashMap<>();
+    private final BitSet pinnedSectors = new BitSet();
+    private final BitSet dirty = new BitSet();
+
+    /**
+     * 通过{@link #pin(int, int)}常驻的扇区数，不含FAT区和根目录区
+     */
+    private int pinnedCount = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    public CachedDisk(IDisk disk) {
+        this(disk, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param disk 被装饰的磁盘
+     * @param capacity 缓存容量，包含目录簇的常驻扇区
+     */
+    public CachedDisk(IDisk disk, int capacity) {
+        this(disk, capacity, WritePolicy.WRITE_THROUGH);
+    }
+
+    /**
+     * @param disk 被装饰的磁盘
+     * @param capacity 缓存容量，包含目录簇的常驻扇区
+     * @param writePolicy 写策略
+     */
+    public CachedDisk(IDisk disk, int capacity, WritePolicy writePolicy) {
+        if (capacity < 4) {
+            throw new IllegalArgumentException("capacity too small: " + capacity);
+        }
+
+        this.disk = disk;
+        this.writePolicy = writePolicy;
+        this.capacity = capacity;
+        this.inCapacity = capacity / 4;
+        this.outCapacity = capacity / 2;
+        this.pinCapacity = capacity / 2;
+
+        pinRegions();
+    }
+
+    @Override
+    public int sectorSize() {
+        return disk.sectorSize();
+    }
+
+    @Override
+    public int sectorCount() {
+        return disk.sectorCount();
+    }
+
+    @Override
+    public long capacity() {
+        return disk.capacity();
+    }
+
+    @Override
+    public byte[] readSector(int sectorIdx) {
+        byte[] buffer = new byte[sectorSize()];
+        readSector(sectorIdx, buffer);
+        return buffer;
+    }
+
+    @Override
+    public synchronized void readSector(int sectorIdx, byte[] buffer) {
+        byte[] data = lookup(sectorIdx);
+        if (data != null) {
+            hits++;
+        } else {
+            misses++;
+            data = new byte[sectorSize()];
+            disk.readSector(sectorIdx, data);
+            insert(sectorIdx, data);
+        }
+        System.arraycopy(data, 0, buffer, 0, sectorSize());
+    }
+
+    @Override
+    public synchronized void writeSector(int sectorIdx, byte[] sectorData) {
+        byte[] data = lookupOrInsert(sectorIdx);
+        System.arraycopy(sectorData, 0, data, 0, sectorSize());
+        if (writePolicy == WritePolicy.WRITE_BACK) {
+            dirty.set(sectorIdx);
+        } else {
+            disk.writeSector(sectorIdx, data);
+        }
+    }
+
+    @Override
+    public synchronized void readSectors(int startSectorIdx, int count, ByteBuffer dst) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        if (count > BYPASS_SECTORS && !isPinned(startSectorIdx, count)) {
+            // 大块读直接访问磁盘，再用缓存中的脏扇区覆盖
+            int base = dst.position();
+            disk.readSectors(startSectorIdx, count, dst);
+            for (int i = dirty.nextSetBit(startSectorIdx); i >= 0 && i < startSectorIdx + count; i = dirty.nextSetBit(i + 1)) {
+                ByteBuffer view = dst.duplicate();
+                view.position(base + (i - startSectorIdx) * sectorSize());
+                view.put(cached(i));
+            }
+            return;
+        }
+
+        int i = 0;
+        while (i < count) {
+            int sectorIdx = startSectorIdx + i;
+            byte[] data = lookup(sectorIdx);
+            if (data != null) {
+                hits++;
+                dst.put(data);
+                i++;
+                continue;
+            }
+
+            // 连续未命中的扇区合并为一次读取
+            int run = 1;
+            while (i + run < count && !contains(sectorIdx + run)) {
+                run++;
+            }
+            misses += run;
+            byte[] block = new byte[run * sectorSize()];
+            disk.readSectors(sectorIdx, run, ByteBuffer.wrap(block));
+            for (int j = 0; j < run; j++) {
+                byte[] sector = new byte[sectorSize()];
+                System.arraycopy(block, j * sectorSize(), sector, 0, sectorSize());
+                insert(sectorIdx + j, sector);
+            }
+            dst.put(block);
+            i += run;
+        }
+    }
+
+    @Override
+    public synchronized void writeSectors(int startSectorIdx, int count, ByteBuffer src) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        boolean bypass = count > BYPASS_SECTORS && !isPinned(startSectorIdx, count);
+        if (!bypass && writePolicy == WritePolicy.WRITE_BACK) {
+            byte[] buffer = new byte[sectorSize()];
+            for (int i = 0; i < count; i++) {
+                src.get(buffer);
+                writeSector(startSectorIdx + i, buffer);
+            }
+            return;
+        }
+
+        if (bypass) {
+            // 之前写入的脏扇区先落盘，避免大块写越过它们先到达磁盘
+            writeBackAll();
+        }
+
+        // 整块写入磁盘，缓存中的扇区同步更新；大块写不把未缓存的扇区放入缓存
+        int base = src.position();
+        disk.writeSectors(startSectorIdx, count, src);
+        for (int i = 0; i < count; i++) {
+            int sectorIdx = startSectorIdx + i;
+            byte[] data = bypass ? cached(sectorIdx) : lookupOrInsert(sectorIdx);
+            if (data != null) {
+                ByteBuffer view = src.duplicate();
+                view.position(base + i * sectorSize());
+                view.get(data);
+                dirty.clear(sectorIdx);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void readSectors(int startSectorIdx, ByteBuffer[] dsts) {
+        IDisk.super.readSectors(startSectorIdx, dsts);
+    }
+
+    @Override
+    public synchronized void writeSectors(int startSectorIdx, ByteBuffer[] srcs) {
+        IDisk.super.writeSectors(startSectorIdx, srcs);
+    }
+
+    @Override
+    public synchronized void sync() {
+        writeBackAll();
+        disk.sync();
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        a1in.clear();
+        a1out.clear();
+        am.clear();
+        pinned.clear();
+        pinnedSectors.clear();
+        dirty.clear();
+        pinnedCount = 0;
+        disk.clear();
+
+        pinRegions();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            disk.close();
+        }
+    }
+
+    /**
+     * 将指定扇区范围设为常驻，常驻扇区不会被淘汰。常驻扇区超出容量的一半时不再常驻，仍按普通扇区缓存
+     *
+     * @return 是否已常驻
+     */
+    public synchronized boolean pin(int startSectorIdx, int count) {
+        int added = count - pinnedSectors.get(startSectorIdx, startSectorIdx + count).cardinality();
+        if (pinnedCount + added > pinCapacity) {
+            return false;
+        }
+
+        pinnedCount += added;
+        pinRange(startSectorIdx, count);
+        evict();
+        return true;
+    }
+
+    /**
+     * FAT区和根目录区始终常驻，不计入缓存容量
+     */
+    private void pinRegions() {
+        pinRange(Layout.FAT_REGION_START, Layout.SECTORS_PER_FAT);
+        pinRange(Layout.ROOT_DIRECTORY_REGION_START, Layout.ROOT_DIRECTORY_REGION_SIZE);
+    }
+
+    private void pinRange(int startSectorIdx, int count) {
+        pinnedSectors.set(startSectorIdx, startSectorIdx + count);
+        for (int i = startSectorIdx; i < startSectorIdx + count; i++) {
+            byte[] data = a1in.remove(i);
+            if (data == null) {
+                data = am.remove(i);
+            }
+            if (data != null) {
+                pinned.put(i, data);
+            }
+        }
+    }
+
+    /**
+     * 取消通过{@link #pin(int, int)}设置的常驻，已缓存的扇区转入LRU队列；范围未常驻时忽略
+     */
+    public synchronized void unpin(int startSectorIdx, int count) {
+        pinnedCount -= pinnedSectors.get(startSectorIdx, startSectorIdx + count).cardinality();
+        pinnedSectors.clear(startSectorIdx, startSectorIdx + count);
+        for (int i = startSectorIdx; i < startSectorIdx + count; i++) {
+            byte[] data = pinned.remove(i);
+            if (data != null) {
+                am.put(i, data);
+            }
+        }
+        evict();
+    }
+
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    public synchronized long missCount() {
+        return misses;
+    }
+
+    /**
+     * @return 目录簇的常驻扇区数，不超过缓存容量的一半
+     */
+    public synchronized int pinnedCount() {
+        return pinnedCount;
+    }
+
+    public synchronized int dirtyCount() {
+        return dirty.cardinality();
+    }
+
+    public WritePolicy getWritePolicy() {
+        return writePolicy;
+    }
+
+    /**
+     * 查找缓存并更新访问顺序：Am中的扇区移到队尾，A1in按FIFO不调整
+     */
+    private byte[] lookup(int sectorIdx) {
+        byte[] data = am.remove(sectorIdx);
+        if (data != null) {
+            am.put(sectorIdx, data);
+            return data;
+        }
+        return cached(sectorIdx);
+    }
+
+    private byte[] lookupOrInsert(int sectorIdx) {
+        byte[] data = lookup(sectorIdx);
+        if (data == null) {
+            data = new byte[sectorSize()];
+            insert(sectorIdx, data);
+        }
+        return data;
+    }
+
+    private byte[] cached(int sectorIdx) {
+        byte[] data = pinned.get(sectorIdx);
+        if (data == null) {
+            data = am.get(sectorIdx);
+        }
+        if (data == null) {
+            data = a1in.get(sectorIdx);
+        }
+        return data;
+    }
+
+    private boolean contains(int sectorIdx) {
+        return pinned.containsKey(sectorIdx) || am.containsKey(sectorIdx) || a1in.containsKey(sectorIdx);
+    }
+
+    private boolean isPinned(int startSectorIdx, int count) {
+        int next = pinnedSectors.nextClearBit(startSectorIdx);
+        return next >= startSectorIdx + count;
+    }
+
+    private void insert(int sectorIdx, byte[] data) {
+        if (pinnedSectors.get(sectorIdx)) {
+            pinned.put(sectorIdx, data);
+            return;
+        }
+
+        if (a1out.remove(sectorIdx)) {
+            am.put(sectorIdx, data);
+        } else {
+            a1in.put(sectorIdx, data);
+        }
+        evict();
+    }
+
+    private void evict() {
+        // 常驻的目录扇区占用部分容量
+        while (a1in.size() + am.size() > capacity - pinnedCount) {
+            boolean fromIn = a1in.size() > inCapacity || am.isEmpty();
+            Iterator<Integer> it = fromIn ? a1in.keySet().iterator() : am.keySet().iterator();
+
+            int sectorIdx = it.next();
+            if (dirty.get(sectorIdx)) {
+                writeBack(sectorIdx);
+            }
+            it.remove();
+
+            if (fromIn) {
+                a1out.add(sectorIdx);
+                if (a1out.size() > outCapacity) {
+                    Iterator<Integer> outIt = a1out.iterator();
+                    outIt.next();
+                    outIt.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按扇区顺序写回全部脏扇区
+     */
+    private void writeBackAll() {
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i)) {
+            i = writeBack(i);
+        }
+    }
+
+    /**
+     * 将包含指定扇区的连续脏扇区一次写回
+     *
+     * @return 写回范围之后的第一个扇区索引
+     */
+    private int writeBack(int sectorIdx) {
+        int start = sectorIdx;
+        while (start > 0 && dirty.get(start - 1)) {
+            start--;
+        }
+        int end = dirty.nextClearBit(sectorIdx);
+
+        List<ByteBuffer> srcs = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            srcs.add(ByteBuffer.wrap(cached(i)));
+        }
+        disk.writeSectors(start, srcs.toArray(new ByteBuffer[0]));
+        dirty.clear(start, end);
+        return end;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.device;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.cooder.mos.fs.fat16.Layout;
+
+/**
+ * 基于{@link FileChannel}定位读写的磁盘实现。
+ * <p>
+ * 每次读写都显式指定偏移量，不依赖共享的文件指针，因此多个会话可以并发读取。
+ * 数据何时落盘由{@link SyncPolicy}决定。
+ */
+public class ChannelDisk implements IDisk {
+
+    /**
+     * 数据同步策略
+     */
+    public enum SyncPolicy {
+        /**
+         * 每次写扇区后立即同步，等价于 {@code RandomAccessFile} 的 "rwd" 模式
+         */
+        EVERY_WRITE,
+
+        /**
+         * 仅在调用{@link IDisk#sync()}或关闭磁盘时同步
+         */
+        EXPLICIT
+    }
+
+    private final FileChannel channel;
+    private final SyncPolicy syncPolicy;
+
+    public ChannelDisk(String path) throws IOException {
+        this(path, SyncPolicy.EVERY_WRITE);
+    }
+
+    public ChannelDisk(String path, SyncPolicy syncPolicy) throws IOException {
+        this.syncPolicy = syncPolicy;
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() != capacity()) {
+            resize();
+        }
+    }
+
+    @Override
+    public int sectorSize() {
+        return Layout.PER_SECTOR_SIZE;
+    }
+
+    @Override
+    public int sectorCount() {
+        return (int) (capacity() / sectorSize());
+    }
+
+    @Override
+    public long capacity() {
+        return 2 * 1024 * 1024 * 1024L;  // 2G
+    }
+
+    @Override
+    public byte[] readSector(int sectorIdx) {
+        byte[] buffer = new byte[sectorSize()];
+        readSector(sectorIdx, buffer);
+        return buffer;
+    }
+
+    @Override
+    public void readSector(int sectorIdx, byte[] buffer) {
+        read(ByteBuffer.wrap(buffer, 0, sectorSize()), position(sectorIdx));
+    }
+
+    @Override
+    public void writeSector(int sectorIdx, byte[] sectorData) {
+        write(ByteBuffer.wrap(sectorData, 0, sectorSize()), position(sectorIdx));
+        syncOnWrite();
+    }
+
+    @Override
+    public void readSectors(int startSectorIdx, int count, ByteBuffer dst) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        read(SectorBuffers.slice(dst, count, sectorSize()), position(startSectorIdx));
+    }
+
+    @Override
+    public void writeSectors(int startSectorIdx, int count, ByteBuffer src) {
+        writeRange(startSectorIdx, count, src);
+        syncOnWrite();
+    }
+
+    @Override
+    public void writeSectors(int startSectorIdx, ByteBuffer[] srcs) {
+        // 全部写入后只同步一次
+        int sectorIdx = startSectorIdx;
+        for (ByteBuffer src : srcs) {
+            int count = SectorBuffers.sectorsOf(src, sectorSize());
+            writeRange(sectorIdx, count, src);
+            sectorIdx += count;
+        }
+        syncOnWrite();
+    }
+
+    @Override
+    public void sync() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        channel.truncate(0);
+        resize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void resize() throws IOException {
+        if (channel.size() > capacity()) {
+            channel.truncate(capacity());
+        } else {
+            // 在末尾写入一个字节将文件扩展到磁盘容量
+            channel.write(ByteBuffer.wrap(new byte[1]), capacity() - 1);
+        }
+    }
+
+    private void read(ByteBuffer dst, long pos) {
+        int total = 0;
+        try {
+            while (dst.hasRemaining()) {
+                int ret = channel.read(dst, pos + total);
+                if (ret < 0) {
+                    throw new IllegalStateException("read beyond end of disk, position: " + (pos + total));
+                }
+                total += ret;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(ByteBuffer src, long pos) {
+        int total = 0;
+        try {
+            while (src.hasRemaining()) {
+                total += channel.write(src, pos + total);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeRange(int startSectorIdx, int count, ByteBuffer src) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        write(SectorBuffers.slice(src, count, sectorSize()), position(startSectorIdx));
+    }
+
+    private void syncOnWrite() {
+        if (syncPolicy == SyncPolicy.EVERY_WRITE) {
+            sync();
+        }
+    }
+
+    private long position(int sectorIdx) {
+        return (long) sectorIdx * sectorSize();
+    }
+}
@@ -10,6 +10,8 @@ package org.cooder.mos.device;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.cooder.mos.fs.fat16.Layout;
 
@@ -73,6 +75,23 @@ public class FileDisk implements IDisk {
         }
     }
 
+    @Override
+    public void readSectors(int startSectorIdx, int count, ByteBuffer dst) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        read(SectorBuffers.slice(dst, count, sectorSize()), position(startSectorIdx));
+    }
+
+    @Override
+    public void writeSectors(int startSectorIdx, int count, ByteBuffer src) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        write(SectorBuffers.slice(src, count, sectorSize()), position(startSectorIdx));
+    }
+
+    @Override
+    public void sync() {
+        // "rwd" 模式下每次写入都已同步
+    }
+
     @Override
     public void clear() throws IOException {
         raf.setLength(0);
@@ -83,4 +102,36 @@ public class FileDisk implements IDisk {
     public void close() throws IOException {
         raf.close();
     }
+
+    private void read(ByteBuffer dst, long pos) {
+        FileChannel channel = raf.getChannel();
+        int total = 0;
+        try {
+            while (dst.hasRemaining()) {
+                int ret = channel.read(dst, pos + total);
+                if (ret < 0) {
+                    throw new IllegalStateException();
+                }
+                total += ret;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private void write(ByteBuffer src, long pos) {
+        FileChannel channel = raf.getChannel();
+        int total = 0;
+        try {
+            while (src.hasRemaining()) {
+                total += channel.write(src, pos + total);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private long position(int sectorIdx) {
+        return (long) sectorIdx * sectorSize();
+    }
 }
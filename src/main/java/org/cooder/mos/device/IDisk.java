@@ -10,6 +10,7 @@ package org.cooder.mos.device;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface IDisk extends Closeable {
 
@@ -53,6 +54,59 @@ public interface IDisk extends Closeable {
      */
     void writeSector(int sectorIdx, byte[] sectorData);
 
+    /**
+     * 从指定扇区开始，连续读取多个扇区到buffer。
+     *
+     * @param startSectorIdx 起始扇区索引
+     * @param count 扇区数量
+     * @param dst 剩余空间不小于{@code count * sectorSize()}，读取后position后移相应字节数
+     */
+    void readSectors(int startSectorIdx, int count, ByteBuffer dst);
+
+    /**
+     * 从指定扇区开始，连续写入多个扇区。
+     *
+     * @param startSectorIdx 起始扇区索引
+     * @param count 扇区数量
+     * @param src 剩余数据不少于{@code count * sectorSize()}，写入后position后移相应字节数
+     */
+    void writeSectors(int startSectorIdx, int count, ByteBuffer src);
+
+    /**
+     * 分散读：从指定扇区开始连续读取，依次填满每个buffer的剩余空间。
+     *
+     * @param startSectorIdx 起始扇区索引
+     * @param dsts 每个buffer的剩余空间必须是{@code sectorSize()}的整数倍
+     */
+    default void readSectors(int startSectorIdx, ByteBuffer[] dsts) {
+        int sectorIdx = startSectorIdx;
+        for (ByteBuffer dst : dsts) {
+            int count = SectorBuffers.sectorsOf(dst, sectorSize());
+            readSectors(sectorIdx, count, dst);
+            sectorIdx += count;
+        }
+    }
+
+    /**
+     * 聚集写：从指定扇区开始，依次写入每个buffer的剩余数据。
+     *
+     * @param startSectorIdx 起始扇区索引
+     * @param srcs 每个buffer的剩余数据必须是{@code sectorSize()}的整数倍
+     */
+    default void writeSectors(int startSectorIdx, ByteBuffer[] srcs) {
+        int sectorIdx = startSectorIdx;
+        for (ByteBuffer src : srcs) {
+            int count = SectorBuffers.sectorsOf(src, sectorSize());
+            writeSectors(sectorIdx, count, src);
+            sectorIdx += count;
+        }
+    }
+
+    /**
+     * 将已写入的数据同步到底层存储设备
+     */
+    void sync();
+
     /**
      * 清空磁盘数据
      * 
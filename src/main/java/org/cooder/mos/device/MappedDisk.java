@@ -0,0 +1,224 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.device;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.cooder.mos.fs.fat16.Layout;
+
+/**
+ * 基于内存映射的磁盘实现。
+ * <p>
+ * 单个{@link MappedByteBuffer}最大只能映射2G，因此磁盘镜像按固定大小分段映射，
+ * 每段在第一次访问时才建立映射，建立后通过{@link AtomicReferenceArray}发布，读写扇区时不加锁。
+ * 扇区读写即为内存拷贝，数据在{@link #sync()}时落盘。
+ */
+public class MappedDisk implements IDisk {
+
+    /**
+     * 默认每段映射256M
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    private final Path path;
+    private FileChannel channel;
+    private final int segmentSize;
+    private final int sectorsPerSegment;
+    private final AtomicReferenceArray<MappedByteBuffer> segments;
+
+    public MappedDisk(String path) throws IOException {
+        this(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param path 磁盘镜像路径
+     * @param segmentSize 每段映射的字节数，必须是扇区大小的整数倍
+     */
+    public MappedDisk(String path, int segmentSize) throws IOException {
+        if (segmentSize <= 0 || segmentSize % sectorSize() != 0) {
+            throw new IllegalArgumentException("segment size must be a multiple of sector size: " + segmentSize);
+        }
+
+        this.segmentSize = segmentSize;
+        this.sectorsPerSegment = segmentSize / sectorSize();
+        this.segments = new AtomicReferenceArray<>((int) ((capacity() + segmentSize - 1) / segmentSize));
+        this.path = Paths.get(path);
+        this.channel = open(this.path);
+        if (channel.size() != capacity()) {
+            resize();
+        }
+    }
+
+    @Override
+    public int sectorSize() {
+        return Layout.PER_SECTOR_SIZE;
+    }
+
+    @Override
+    public int sectorCount() {
+        return (int) (capacity() / sectorSize());
+    }
+
+    @Override
+    public long capacity() {
+        return 2 * 1024 * 1024 * 1024L;  // 2G
+    }
+
+    @Override
+    public byte[] readSector(int sectorIdx) {
+        byte[] buffer = new byte[sectorSize()];
+        readSector(sectorIdx, buffer);
+        return buffer;
+    }
+
+    @Override
+    public void readSector(int sectorIdx, byte[] buffer) {
+        ByteBuffer buf = sectorBuffer(sectorIdx);
+        buf.get(buffer, 0, sectorSize());
+    }
+
+    @Override
+    public void writeSector(int sectorIdx, byte[] sectorData) {
+        ByteBuffer buf = sectorBuffer(sectorIdx);
+        buf.put(sectorData, 0, sectorSize());
+    }
+
+    @Override
+    public void readSectors(int startSectorIdx, int count, ByteBuffer dst) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        ByteBuffer view = SectorBuffers.slice(dst, count, sectorSize());
+        int sectorIdx = startSectorIdx;
+        while (view.hasRemaining()) {
+            ByteBuffer buf = segmentRun(sectorIdx, view.remaining() / sectorSize());
+            sectorIdx += buf.remaining() / sectorSize();
+            view.put(buf);
+        }
+    }
+
+    @Override
+    public void writeSectors(int startSectorIdx, int count, ByteBuffer src) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        ByteBuffer view = SectorBuffers.slice(src, count, sectorSize());
+        int sectorIdx = startSectorIdx;
+        while (view.hasRemaining()) {
+            ByteBuffer buf = segmentRun(sectorIdx, view.remaining() / sectorSize());
+            sectorIdx += buf.remaining() / sectorSize();
+            ByteBuffer part = view.duplicate();
+            part.limit(part.position() + buf.remaining());
+            buf.put(part);
+            view.position(part.position());
+        }
+    }
+
+    @Override
+    public synchronized void sync() {
+        for (int i = 0; i < segments.length(); i++) {
+            MappedByteBuffer segment = segments.get(i);
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * 清空磁盘，调用时不能有并发的扇区读写。
+     * <p>
+     * 旧映射在被回收前仍然有效，截断被映射的文件后访问旧映射会导致进程崩溃，
+     * 因此丢弃旧映射后删除镜像并新建同名的空镜像，旧映射仍指向已删除的文件，映射在下次访问时重新建立。
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        for (int i = 0; i < segments.length(); i++) {
+            segments.set(i, null);
+        }
+        channel.close();
+        Files.delete(path);
+        channel = open(path);
+        resize();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 返回定位到指定扇区起始位置的缓冲区视图。
+     * 视图的position相互独立，因此并发读写不同扇区时无需加锁。
+     */
+    private ByteBuffer sectorBuffer(int sectorIdx) {
+        if (sectorIdx < 0 || sectorIdx >= sectorCount()) {
+            throw new IllegalArgumentException("sector out of range: " + sectorIdx);
+        }
+
+        int segmentIdx = sectorIdx / sectorsPerSegment;
+        int offset = (sectorIdx % sectorsPerSegment) * sectorSize();
+        ByteBuffer buf = segment(segmentIdx).duplicate();
+        buf.position(offset);
+        return buf;
+    }
+
+    /**
+     * 返回从指定扇区开始、不跨越映射段的最多count个扇区的缓冲区视图
+     */
+    private ByteBuffer segmentRun(int sectorIdx, int count) {
+        ByteBuffer buf = sectorBuffer(sectorIdx);
+        int n = Math.min(count, sectorsPerSegment - sectorIdx % sectorsPerSegment);
+        buf.limit(buf.position() + n * sectorSize());
+        return buf;
+    }
+
+    private MappedByteBuffer segment(int segmentIdx) {
+        MappedByteBuffer segment = segments.get(segmentIdx);
+        return segment != null ? segment : map(segmentIdx);
+    }
+
+    /**
+     * 建立映射，只在每段第一次访问时加锁
+     */
+    private synchronized MappedByteBuffer map(int segmentIdx) {
+        MappedByteBuffer segment = segments.get(segmentIdx);
+        if (segment == null) {
+            long start = (long) segmentIdx * segmentSize;
+            long size = Math.min(segmentSize, capacity() - start);
+            try {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            segments.set(segmentIdx, segment);
+        }
+        return segment;
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void resize() throws IOException {
+        if (channel.size() > capacity()) {
+            channel.truncate(capacity());
+        } else {
+            // 在末尾写入一个字节将文件扩展到磁盘容量
+            channel.write(ByteBuffer.wrap(new byte[1]), capacity() - 1);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.device;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 多扇区读写的公共参数检查与缓冲区切分，各磁盘实现只负责实际的数据传输。
+ */
+final class SectorBuffers {
+
+    private SectorBuffers() {}
+
+    /**
+     * 检查扇区范围[startSectorIdx, startSectorIdx + count)是否在磁盘内
+     */
+    static void checkRange(IDisk disk, int startSectorIdx, int count) {
+        if (startSectorIdx < 0 || count < 0 || startSectorIdx > disk.sectorCount() - count) {
+            throw new IllegalArgumentException("sector out of range: " + startSectorIdx + ", count: " + count);
+        }
+    }
+
+    /**
+     * 截取buffer当前位置起{@code count}个扇区的视图，并将原buffer的position后移
+     */
+    static ByteBuffer slice(ByteBuffer buf, int count, int sectorSize) {
+        int length = count * sectorSize;
+        if (buf.remaining() < length) {
+            throw new IllegalArgumentException("buffer too small for " + count + " sectors");
+        }
+
+        ByteBuffer view = buf.duplicate();
+        view.limit(view.position() + length);
+        buf.position(buf.position() + length);
+        return view;
+    }
+
+    /**
+     * @return buffer剩余空间对应的扇区数，剩余空间必须是扇区大小的整数倍
+     */
+    static int sectorsOf(ByteBuffer buf, int sectorSize) {
+        if (buf.remaining() % sectorSize != 0) {
+            throw new IllegalArgumentException("buffer size must be a multiple of sector size");
+        }
+        return buf.remaining() / sectorSize;
+    }
+}
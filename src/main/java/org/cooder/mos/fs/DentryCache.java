@@ -0,0 +1,159 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.cooder.mos.fs.fat16.DirectoryTreeNode;
+
+/**
+ * 路径解析缓存：以规范化路径（如{@code /a/b}）为键缓存解析得到的目录项节点，按LRU淘汰。
+ * <p>
+ * 不存在的路径同样被缓存（负缓存），与存在的路径分开保存；创建、删除、目录折叠和格式化时由{@link FileSystem}调用相应方法失效。
+ * 短文件名模式下多个路径可能解析到同一节点，因此失效按节点及其祖先关系判断，而不按路径前缀。
+ */
+public class DentryCache {
+
+    /**
+     * 默认缓存4096条路径
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final LinkedHashMap<String, DirectoryTreeNode> entries;
+    private final LinkedHashMap<String, Boolean> negatives;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * 每次失效时递增，解析期间发生过失效的结果不缓存
+     */
+    private long generation = 0;
+
+    public DentryCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DentryCache(int capacity) {
+        this.entries = lruMap(capacity);
+        this.negatives = lruMap(capacity);
+    }
+
+    private static <V> LinkedHashMap<String, V> lruMap(int capacity) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static String key(String[] paths) {
+        return IFileSystem.separator + String.join(IFileSystem.separator + "", paths);
+    }
+
+    /**
+     * 查找路径，未缓存时调用resolver解析并缓存结果
+     *
+     * @param paths 规范化的路径
+     * @param resolver 解析函数，路径不存在时返回null
+     * @return 目录项节点，路径不存在时返回null
+     */
+    public DirectoryTreeNode lookup(String[] paths, Function<String[], DirectoryTreeNode> resolver) {
+        String key = key(paths);
+        long start;
+        synchronized (this) {
+            DirectoryTreeNode node = entries.get(key);
+            if (node != null) {
+                hits++;
+                return node;
+            }
+            if (negatives.get(key) != null) {
+                hits++;
+                return null;
+            }
+            misses++;
+            start = generation;
+        }
+
+        // 解析不持有缓存锁；期间若有创建、删除或折叠，结果可能已过期，只返回不缓存
+        DirectoryTreeNode node = resolver.apply(paths);
+        synchronized (this) {
+            if (generation != start) {
+                return node;
+            }
+            if (node == null) {
+                negatives.put(key, Boolean.TRUE);
+            } else {
+                entries.put(key, node);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * 新建了目录项：负缓存全部失效
+     */
+    public synchronized void created() {
+        generation++;
+        negatives.clear();
+    }
+
+    /**
+     * 节点被删除：指向该节点及其子孙的缓存失效
+     */
+    public synchronized void removed(DirectoryTreeNode node) {
+        generation++;
+        removeDescendants(node, true);
+    }
+
+    /**
+     * 目录被折叠：指向其子孙节点的缓存失效，目录本身仍然有效
+     */
+    public synchronized void folded(DirectoryTreeNode dir) {
+        generation++;
+        removeDescendants(dir, false);
+    }
+
+    private void removeDescendants(DirectoryTreeNode node, boolean inclusive) {
+        Iterator<DirectoryTreeNode> it = entries.values().iterator();
+        while (it.hasNext()) {
+            DirectoryTreeNode n = it.next();
+            for (DirectoryTreeNode p = inclusive ? n : n.parent; p != null; p = p.parent) {
+                if (p == node) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        negatives.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size() + negatives.size();
+    }
+
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    public synchronized long missCount() {
+        return misses;
+    }
+}
@@ -19,7 +19,7 @@ public class FileDescriptor {
     private final String[] paths;
     private FatFileInputStream fis;
     private FatFileOutputStream fos;
-    final DirectoryTreeNode node;
+    DirectoryTreeNode node;
 
     FileDescriptor(String[] paths, DirectoryTreeNode node) {
         this.node = node;
@@ -37,10 +37,24 @@ public class FileDescriptor {
         fos.write(b);
     }
 
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fos == null) {
+            throw new IllegalStateException();
+        }
+        fos.write(b, off, len);
+    }
+
     public void flush() {
         fos.flush();
     }
 
+    public void sync() {
+        if (fos == null) {
+            throw new IllegalStateException();
+        }
+        fos.sync();
+    }
+
     public void close() {
         Utils.close(fis);
         Utils.close(fos);
@@ -53,6 +67,13 @@ public class FileDescriptor {
         return fis.read();
     }
 
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (fis == null) {
+            throw new IllegalStateException();
+        }
+        return fis.read(b, off, len);
+    }
+
     public void setFatFileInputStream(FatFileInputStream fis) {
         this.fis = fis;
     }
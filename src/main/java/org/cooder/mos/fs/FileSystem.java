@@ -8,15 +8,13 @@
  */
 package org.cooder.mos.fs;
 
-import org.cooder.mos.Utils;
 import org.cooder.mos.device.IDisk;
 import org.cooder.mos.fs.fat16.*;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class FileSystem implements IFileSystem {
     public static final FileSystem instance = new FileSystem();
@@ -24,6 +22,13 @@ public class FileSystem implements IFileSystem {
     private IDisk disk;
     private FAT16 fat;
     private final Set<FileDescriptor> OPEN_FILES = new HashSet<>();
+    private final DentryCache dentries = new DentryCache();
+
+    /**
+     * 写文件时目录项的默认同步间隔（毫秒）
+     */
+    public static final long DEFAULT_METADATA_SYNC_INTERVAL = 1000;
+    private volatile long metadataSyncInterval = DEFAULT_METADATA_SYNC_INTERVAL;
 
     private FileSystem() {
     }
@@ -36,6 +41,8 @@ public class FileSystem implements IFileSystem {
         } else {
             fat = new FAT16(disk);
         }
+        fat.getTreeMemory().setFoldListener(dentries::folded);
+        dentries.clear();
     }
 
     @Override
@@ -48,6 +55,33 @@ public class FileSystem implements IFileSystem {
     public void format() throws IOException {
         disk.clear();
         fat.format();
+        dentries.clear();
+    }
+
+    public long getMetadataSyncInterval() {
+        return metadataSyncInterval;
+    }
+
+    /**
+     * 设置写文件时文件大小和修改时间写入目录项的间隔（毫秒），对之后打开的文件和随机访问文件生效。
+     * 0表示每写满一个扇区（随机访问时每次写入）都写入，负数表示只在关闭或同步文件时写入
+     */
+    public void setMetadataSyncInterval(long metadataSyncInterval) {
+        this.metadataSyncInterval = metadataSyncInterval;
+    }
+
+    /**
+     * @return 文件分配表及目录树
+     */
+    public FAT16 getFat() {
+        return fat;
+    }
+
+    /**
+     * @return 路径解析缓存
+     */
+    public DentryCache getDentryCache() {
+        return dentries;
     }
 
     @Override
@@ -62,24 +96,58 @@ public class FileSystem implements IFileSystem {
 
     @Override
     public FileDescriptor open(String[] paths, int mode) throws IOException {
-        FileDescriptor descriptor = null;
-        DirectoryTreeNode node = findEntryNode(paths);
-        if (mode == READ) {
-            if (node == null) {
-                throw new IOException("No such file or directory");
+        ReentrantLock treeLock = fat.getTreeLock();
+        treeLock.lock();
+        try {
+            FileDescriptor descriptor = null;
+            DirectoryTreeNode node = findEntryNode(paths);
+            if (mode == READ) {
+                if (node == null) {
+                    throw new IOException("No such file or directory");
+                }
+                descriptor = new FileDescriptor(paths, node);
+                descriptor.setFatFileInputStream(createFatFileInputStream(descriptor));
+            } else {
+                if (node == null) {
+                    node = createEntry(paths);
+                }
+                descriptor = new FileDescriptor(paths, node);
+                FatFileOutputStream fos = createFatFileOutputStream(descriptor, mode);
+                if (fos != null) {
+                    fos.setMetadataSyncInterval(metadataSyncInterval);
+                }
+                descriptor.setFatFileOutputStream(fos);
             }
-            descriptor = new FileDescriptor(paths, node);
-            descriptor.setFatFileInputStream(createFatFileInputStream(descriptor));
-        } else {
+
+            // 持有目录树锁期间固定，查找到的节点不会在固定之前被折叠
+            OPEN_FILES.add(descriptor);
+            fat.getTreeMemory().pin(node);
+            return descriptor;
+        } finally {
+            treeLock.unlock();
+        }
+    }
+
+    @Override
+    public RandomAccessHandle openRandomAccess(String[] paths, boolean writable) throws IOException {
+        ReentrantLock treeLock = fat.getTreeLock();
+        treeLock.lock();
+        try {
+            DirectoryTreeNode node = findEntryNode(paths);
             if (node == null) {
+                if (!writable) {
+                    throw new IOException("No such file or directory");
+                }
                 node = createEntry(paths);
             }
-            descriptor = new FileDescriptor(paths, node);
-            descriptor.setFatFileOutputStream(createFatFileOutputStream(descriptor, mode));
-        }
 
-        OPEN_FILES.add(descriptor);
-        return descriptor;
+            if (node.isDir()) {
+                throw new IOException(node.getName() + ": is a directory");
+            }
+            return new RandomAccessHandle(disk, fat, node, writable, metadataSyncInterval);
+        } finally {
+            treeLock.unlock();
+        }
     }
 
     @Override
@@ -87,14 +155,48 @@ public class FileSystem implements IFileSystem {
         return fd.read();
     }
 
+    @Override
+    public int read(FileDescriptor fd, byte[] b, int off, int len) throws IOException {
+        return fd.read(b, off, len);
+    }
+
     @Override
     public void write(FileDescriptor fd, int b) throws IOException {
         fd.write(b);
     }
 
+    @Override
+    public void write(FileDescriptor fd, byte[] b, int off, int len) throws IOException {
+        fd.write(b, off, len);
+    }
+
     @Override
     public void delete(FileDescriptor fd) {
-        deleteTreeNode(fd.node);
+        ReentrantLock treeLock = fat.getTreeLock();
+        treeLock.lock();
+        try {
+            deleteTreeNode(attachedNode(fd));
+        } finally {
+            treeLock.unlock();
+        }
+    }
+
+    @Override
+    public void preallocate(FileDescriptor fd, int length) {
+        if (fd.isDir()) {
+            throw new IllegalArgumentException(fd.getName() + ": is a directory");
+        }
+
+        int clusterIdx = fd.getStartingCluster();
+        int needed = (length + Layout.PER_CLUSTER_SIZE - 1) / Layout.PER_CLUSTER_SIZE;
+        int count = fat.clusterCountFrom(clusterIdx);
+        if (needed > count) {
+            int allocated = fat.extendChain(clusterIdx, needed - count);
+            fat.flush();
+            if (allocated < needed - count) {
+                throw new IllegalStateException("low disk space");
+            }
+        }
     }
 
     @Override
@@ -102,30 +204,104 @@ public class FileSystem implements IFileSystem {
         fdDescriptor.flush();
     }
 
+    @Override
+    public void sync(FileDescriptor fd) {
+        fd.sync();
+    }
+
     @Override
     public void close(FileDescriptor fdDescriptor) {
         fdDescriptor.close();
-        OPEN_FILES.remove(fdDescriptor);
+
+        // 与open和pin相同，在目录树锁内修改打开文件集合和固定计数
+        ReentrantLock treeLock = fat.getTreeLock();
+        treeLock.lock();
+        try {
+            if (OPEN_FILES.remove(fdDescriptor)) {
+                fat.getTreeMemory().unpin(fdDescriptor.node);
+            }
+        } finally {
+            treeLock.unlock();
+        }
+    }
+
+    @Override
+    public void pin(FileDescriptor fd) {
+        ReentrantLock treeLock = fat.getTreeLock();
+        treeLock.lock();
+        try {
+            fat.getTreeMemory().pin(attachedNode(fd));
+        } finally {
+            treeLock.unlock();
+        }
+    }
+
+    @Override
+    public void unpin(FileDescriptor fd) {
+        ReentrantLock treeLock = fat.getTreeLock();
+        treeLock.lock();
+        try {
+            fat.getTreeMemory().unpin(fd.node);
+        } finally {
+            treeLock.unlock();
+        }
     }
 
     @Override
     public FileDescriptor createDirectory(FileDescriptor parent, String name) {
         DirectoryTreeNode node = fat.createTreeNode(parent.node, name, true);
-        return new FileDescriptor(Utils.normalizePath(node.getPath()), node);
+        dentries.created();
+        return new FileDescriptor(node.getPathComponents(), node);
     }
 
     @Override
     public String[] list(FileDescriptor parent) {
-        fat.loadEntries(parent.node);
+        ReentrantLock treeLock = fat.getTreeLock();
+        treeLock.lock();
+        try {
+            fat.loadEntries(parent.node);
+
+            DirectoryTreeNode[] nodes = parent.node.getChildren();
+            String[] list = new String[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                list[i] = nodes[i].getPath();
+            }
+            return list;
+        } finally {
+            treeLock.unlock();
+        }
+    }
 
-        List<String> list = new ArrayList<>();
-        DirectoryTreeNode[] nodes = parent.node.getChildren();
-        for (DirectoryTreeNode s : nodes) {
-            if (s.valid()) {
-                list.add(s.getPath());
+    @Override
+    public FileDescriptor[] listFiles(FileDescriptor parent) {
+        ReentrantLock treeLock = fat.getTreeLock();
+        treeLock.lock();
+        try {
+            fat.loadEntries(parent.node);
+
+            DirectoryTreeNode[] nodes = parent.node.getChildren();
+            FileDescriptor[] list = new FileDescriptor[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                list[i] = new FileDescriptor(nodes[i].getPathComponents(), nodes[i]);
             }
+            return list;
+        } finally {
+            treeLock.unlock();
         }
-        return list.toArray(new String[0]);
+    }
+
+    /**
+     * 查找之后节点可能随祖先目录折叠而失效，此时按路径重新查找，调用方须持有目录树锁
+     */
+    private DirectoryTreeNode attachedNode(FileDescriptor fd) {
+        if (!fd.node.isAttached()) {
+            DirectoryTreeNode node = findEntryNode(fd.getPaths());
+            if (node == null) {
+                throw new IllegalStateException("No such file or directory");
+            }
+            fd.node = node;
+        }
+        return fd.node;
     }
 
     private DirectoryTreeNode findEntryNode(String[] paths) {
@@ -137,6 +313,10 @@ public class FileSystem implements IFileSystem {
             return fat.root;
         }
 
+        return dentries.lookup(paths, this::resolveEntryNode);
+    }
+
+    private DirectoryTreeNode resolveEntryNode(String[] paths) {
         DirectoryTreeNode parent = fat.root;
         DirectoryTreeNode entry = null;
         for (String name : paths) {
@@ -150,23 +330,36 @@ public class FileSystem implements IFileSystem {
     }
 
     private void deleteTreeNode(DirectoryTreeNode node) {
-        if (node.isDir() && !fat.isEmpty(node)) {
-            throw new IllegalStateException("directory not empty.");
-        }
+        ReentrantLock treeLock = fat.getTreeLock();
+        treeLock.lock();
+        try {
+            if (node.isDir() && !fat.isEmpty(node)) {
+                throw new IllegalStateException("directory not empty.");
+            }
 
-        // 当node包含无法识别的信息时，不能删除
-        if (node.containsUnknownInfo()) {
-            throw new IllegalStateException("the node contains lfn entry, can not delete.");
-        }
+            // 打开的文件和会话的工作目录被固定，删除后其簇会被重新分配
+            if (fat.getTreeMemory().isPinned(node)) {
+                throw new IllegalStateException("the node is in use, can not delete.");
+            }
 
-        // remove file data
-        if (!node.isDir()) {
-            int clusterIdx = node.getEntry().startingCluster;
-            fat.markFreeFrom(clusterIdx);
-            fat.writeCluster(clusterIdx, FAT16.FREE_CLUSTER);
-        }
+            // 当node包含无法识别的信息时，不能删除
+            if (node.containsUnknownInfo()) {
+                throw new IllegalStateException("the node contains lfn entry, can not delete.");
+            }
+
+            // remove file data
+            if (!node.isDir()) {
+                int clusterIdx = node.getEntry().startingCluster & 0xFFFF;
+                fat.markFreeFrom(clusterIdx);
+                fat.writeCluster(clusterIdx, FAT16.FREE_CLUSTER);
+            }
 
-        fat.removeTreeNode(node);
+            dentries.removed(node);
+            fat.removeTreeNode(node);
+            fat.flush();
+        } finally {
+            treeLock.unlock();
+        }
     }
 
     private DirectoryTreeNode createEntry(String[] paths) {
@@ -178,6 +371,7 @@ public class FileSystem implements IFileSystem {
             if (entry == null) {
                 boolean isDir = i < paths.length - 1;
                 entry = fat.createTreeNode(parent, name, isDir);
+                dentries.created();
             }
             parent = entry;
         }
@@ -203,14 +397,16 @@ public class FileSystem implements IFileSystem {
             return new FatFileOutputStream(disk, fat, clusterIdx, sectorIdx, 0, fd.node);
 
         } else if (mode == APPEND) {
-            int lastClusterIdx = fat.lastClusterFrom(clusterIdx);
-            int clusterCount = fat.clusterCountFrom(clusterIdx);
             int fileSize = fd.getFileSize();
 
-            // cluster chain full, alloc next cluster
-            if (clusterCount * Layout.PER_CLUSTER_SIZE == fileSize) {
-                int next = fat.nextFreeCluster(lastClusterIdx);
-                lastClusterIdx = next;
+            // 定位文件末尾所在的簇，簇链可能因预分配而长于文件大小
+            int lastClusterIdx = fat.clusterAt(clusterIdx, fileSize / Layout.PER_CLUSTER_SIZE);
+            if (lastClusterIdx < 0) {
+                // cluster chain full, alloc next cluster
+                lastClusterIdx = fat.nextFreeCluster(fat.lastClusterFrom(clusterIdx));
+                if (lastClusterIdx < 0) {
+                    throw new IllegalStateException("low disk space");
+                }
             }
 
             int offset = fileSize % Layout.PER_CLUSTER_SIZE;
@@ -82,6 +82,16 @@ public interface IFileSystem {
      */
     FileDescriptor open(String[] paths, int mode) throws IOException;
 
+    /**
+     * 以随机访问方式打开文件
+     *
+     * @param paths    文件路径
+     * @param writable 是否可写，可写时文件不存在则创建，已有内容不会被清空
+     * @return 随机访问句柄，使用完毕后需关闭
+     * @throws IOException 文件不存在且不可写，或路径是目录
+     */
+    RandomAccessHandle openRandomAccess(String[] paths, boolean writable) throws IOException;
+
     /**
      * 关闭一个指定文件
      *
@@ -99,6 +109,18 @@ public interface IFileSystem {
      */
     int read(FileDescriptor fd) throws IOException;
 
+    /**
+     * 读取至多len个字节到b中
+     *
+     * @param fd  文件描述符
+     * @param b   目标缓冲区
+     * @param off 写入b的起始位置
+     * @param len 最多读取的字节数
+     * @return 实际读取的字节数, 或当到达文件末尾时返回 <code>-1</code>
+     * @throws IOException
+     */
+    int read(FileDescriptor fd, byte[] b, int off, int len) throws IOException;
+
     /**
      * 往文件里写入一个字节
      *
@@ -108,6 +130,17 @@ public interface IFileSystem {
      */
     void write(FileDescriptor fd, int b) throws IOException;
 
+    /**
+     * 写入b中从off开始的len个字节
+     *
+     * @param fd  文件描述符
+     * @param b   数据
+     * @param off 数据在b中的起始位置
+     * @param len 写入的字节数
+     * @throws IOException
+     */
+    void write(FileDescriptor fd, byte[] b, int off, int len) throws IOException;
+
     /**
      * 将缓冲数据刷盘
      *
@@ -115,6 +148,13 @@ public interface IFileSystem {
      */
     void flush(FileDescriptor fd);
 
+    /**
+     * 将缓冲数据、文件分配表和目录项写入磁盘，并同步到存储设备
+     *
+     * @param fd 文件描述符
+     */
+    void sync(FileDescriptor fd);
+
     /**
      * 删除一个文件
      *
@@ -123,6 +163,14 @@ public interface IFileSystem {
      */
     void delete(FileDescriptor fd);
 
+    /**
+     * 为文件预分配连续的簇，文件大小不变
+     *
+     * @param fd     文件描述符
+     * @param length 预分配的字节数
+     */
+    void preallocate(FileDescriptor fd, int length);
+
     /**
      * 指定目录下创建一个目录
      *
@@ -139,4 +187,26 @@ public interface IFileSystem {
      * @return
      */
     String[] list(FileDescriptor parent);
+
+    /**
+     * 返回指定目录下的所有文件描述符，不需要再按路径查找
+     *
+     * @param parent 父目录
+     * @return 子文件和子目录的描述符
+     */
+    FileDescriptor[] listFiles(FileDescriptor parent);
+
+    /**
+     * 固定文件所在的路径，路径上的目录不会因内存回收而折叠，打开的文件自动固定
+     *
+     * @param fd 文件描述符
+     */
+    void pin(FileDescriptor fd);
+
+    /**
+     * 取消固定
+     *
+     * @param fd 文件描述符
+     */
+    void unpin(FileDescriptor fd);
 }
@@ -0,0 +1,277 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.cooder.mos.device.IDisk;
+import org.cooder.mos.fs.fat16.DirectoryTreeNode;
+import org.cooder.mos.fs.fat16.FAT16;
+import org.cooder.mos.fs.fat16.Layout;
+
+/**
+ * 随机访问文件：按位置读写文件内容。
+ * <p>
+ * 位置通过{@link FAT16#clusterAt(int, int)}定位到簇，由簇区间缓存解析，不从簇链头开始遍历；
+ * 簇内对齐的整扇区直接读写调用方的数组，首尾不足一个扇区的部分读出扇区后修改。
+ * 写入超出文件末尾时先扩展簇链并将空洞清零。文件大小和修改时间按目录项同步间隔写入，FAT先于目录项落盘。
+ */
+public class RandomAccessHandle implements Closeable {
+    private final IDisk disk;
+    private final FAT16 fat;
+    private final DirectoryTreeNode node;
+    private final boolean writable;
+    private final byte[] sector = new byte[Layout.PER_SECTOR_SIZE];
+    private long position = 0;
+    private boolean closed = false;
+
+    /**
+     * 目录项同步间隔（毫秒）：0表示每次写入都写入目录项，负数表示只在close和sync时写入
+     */
+    private final long metadataSyncInterval;
+    private long lastMetadataSync = System.currentTimeMillis();
+    private boolean metadataDirty = false;
+
+    RandomAccessHandle(IDisk disk, FAT16 fat, DirectoryTreeNode node, boolean writable, long metadataSyncInterval) {
+        this.disk = disk;
+        this.fat = fat;
+        this.node = node;
+        this.writable = writable;
+        this.metadataSyncInterval = metadataSyncInterval;
+        fat.getTreeMemory().pin(node);
+    }
+
+    public long length() {
+        return node.getFileSize() & 0xFFFFFFFFL;
+    }
+
+    public long getFilePointer() {
+        return position;
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("negative seek offset: " + pos);
+        }
+        this.position = pos;
+    }
+
+    /**
+     * 从当前位置读取，并移动当前位置
+     *
+     * @return 读取的字节数，位于文件末尾时返回-1
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = read(position, b, off, len);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    /**
+     * 从指定位置读取，不改变当前位置
+     *
+     * @return 读取的字节数，位置在文件末尾之后时返回-1
+     */
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        checkRange(b, off, len);
+        if (pos < 0) {
+            throw new IOException("negative position: " + pos);
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        long size = length();
+        if (pos >= size) {
+            return -1;
+        }
+
+        int total = (int) Math.min(len, size - pos);
+        transfer(pos, b, off, total, false);
+        return total;
+    }
+
+    /**
+     * 在当前位置写入，并移动当前位置
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        write(position, b, off, len);
+        position += len;
+    }
+
+    /**
+     * 在指定位置写入，不改变当前位置；位置在文件末尾之后时，中间的部分以0填充
+     */
+    public void write(long pos, byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (!writable) {
+            throw new IOException("file is opened read-only");
+        }
+        checkRange(b, off, len);
+        if (pos < 0) {
+            throw new IOException("negative position: " + pos);
+        }
+        if (len == 0) {
+            return;
+        }
+
+        long size = length();
+        long end = pos + len;
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("file too large");
+        }
+
+        if (end > size) {
+            ensureClusters(end);
+            if (pos > size) {
+                zeroFill(size, pos);
+            }
+        }
+
+        transfer(pos, b, off, len, true);
+
+        long now = System.currentTimeMillis();
+        node.setWriteTime(now);
+        if (end > size) {
+            node.setFileSize((int) end);
+        }
+        metadataDirty = true;
+
+        // 延迟写入时文件大小只保存在内存中，磁盘上的目录项只会落后于FAT
+        if (metadataSyncInterval == 0 || (metadataSyncInterval > 0 && now - lastMetadataSync >= metadataSyncInterval)) {
+            // 簇链先落盘，目录项不会引用仍为空闲的簇
+            fat.flush();
+            syncMetadata();
+        }
+    }
+
+    /**
+     * 将FAT和目录项写入磁盘，并同步到存储设备
+     */
+    public void sync() throws IOException {
+        ensureOpen();
+        fat.flush();
+        syncMetadata();
+        disk.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        fat.flush();
+        syncMetadata();
+        closed = true;
+        fat.getTreeMemory().unpin(node);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 在文件的[pos, pos + len)与b之间复制数据
+     */
+    private void transfer(long pos, byte[] b, int off, int len, boolean write) throws IOException {
+        int start = startingCluster();
+        int done = 0;
+        while (done < len) {
+            long p = pos + done;
+            int clusterIdx = fat.clusterAt(start, (int) (p / Layout.PER_CLUSTER_SIZE));
+            if (clusterIdx < 0) {
+                throw new IOException("cluster chain is shorter than file size");
+            }
+
+            int inCluster = (int) (p % Layout.PER_CLUSTER_SIZE);
+            int sectorIdx = Layout.getClusterDataStartSector(clusterIdx) + inCluster / Layout.PER_SECTOR_SIZE;
+            int inSector = inCluster % Layout.PER_SECTOR_SIZE;
+            int remaining = len - done;
+
+            int n;
+            if (inSector == 0 && remaining >= Layout.PER_SECTOR_SIZE) {
+                // 簇内对齐的整扇区直接读写
+                int sectors = Math.min(remaining / Layout.PER_SECTOR_SIZE,
+                        (Layout.PER_CLUSTER_SIZE - inCluster) / Layout.PER_SECTOR_SIZE);
+                n = sectors * Layout.PER_SECTOR_SIZE;
+                ByteBuffer buf = ByteBuffer.wrap(b, off + done, n);
+                if (write) {
+                    disk.writeSectors(sectorIdx, sectors, buf);
+                } else {
+                    disk.readSectors(sectorIdx, sectors, buf);
+                }
+            } else {
+                n = Math.min(remaining, Layout.PER_SECTOR_SIZE - inSector);
+                disk.readSector(sectorIdx, sector);
+                if (write) {
+                    System.arraycopy(b, off + done, sector, inSector, n);
+                    disk.writeSector(sectorIdx, sector);
+                } else {
+                    System.arraycopy(sector, inSector, b, off + done, n);
+                }
+            }
+            done += n;
+        }
+    }
+
+    /**
+     * 扩展簇链，使其能容纳end个字节
+     */
+    private void ensureClusters(long end) {
+        int start = startingCluster();
+        int needed = (int) ((end + Layout.PER_CLUSTER_SIZE - 1) / Layout.PER_CLUSTER_SIZE);
+        int count = fat.clusterCountFrom(start);
+        if (needed > count) {
+            int allocated = fat.extendChain(start, needed - count);
+            if (allocated < needed - count) {
+                fat.flush();
+                throw new IllegalStateException("low disk space");
+            }
+        }
+    }
+
+    /**
+     * 将[from, to)以0填充，簇中可能残留已删除文件的数据
+     */
+    private void zeroFill(long from, long to) throws IOException {
+        byte[] zero = new byte[(int) Math.min(to - from, Layout.PER_CLUSTER_SIZE)];
+        for (long p = from; p < to; p += zero.length) {
+            transfer(p, zero, 0, (int) Math.min(zero.length, to - p), true);
+        }
+    }
+
+    private void syncMetadata() {
+        if (metadataDirty) {
+            fat.writeDirectoryTreeNode(node);
+            lastMetadataSync = System.currentTimeMillis();
+            metadataDirty = false;
+        }
+    }
+
+    private int startingCluster() {
+        return node.getEntry().startingCluster & 0xFFFF;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("file is closed");
+        }
+    }
+
+    private static void checkRange(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+}
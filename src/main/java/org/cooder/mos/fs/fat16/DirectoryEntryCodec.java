@@ -0,0 +1,237 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import java.nio.ByteBuffer;
+
+import org.cooder.mos.fs.fat16.Layout.DirectoryEntry;
+import org.cooder.mos.fs.fat16.Layout.LfnEntry;
+
+/**
+ * 目录项编解码，直接在扇区数据的指定偏移处读写各字段，不创建中间缓冲区。
+ * <p>
+ * 目录项布局（大端字节序）：
+ *
+ * <pre>
+ * 0  fileName(8)  8 extension(3)  11 attrs  12 reserved  13 creation  14 createTime  16 createDate
+ * 18 lastAccessDate  20 lastWriteTime  22 lastWriteDate  24 startingCluster  26 fileSize(4)  30 未使用(2)
+ * </pre>
+ *
+ * 长文件名项布局：
+ *
+ * <pre>
+ * 0 ordinal  1 part1(10)  11 attrs  12 part2(20)
+ * </pre>
+ *
+ * {@link ByteBuffer}版本使用绝对位置读写，不改变buffer的position。
+ */
+public class DirectoryEntryCodec {
+    public static final int OFFSET_FILE_NAME = 0;
+    public static final int OFFSET_EXTENSION = 8;
+    public static final int OFFSET_ATTRS = 11;
+    public static final int OFFSET_RESERVED = 12;
+    public static final int OFFSET_CREATION = 13;
+    public static final int OFFSET_CREATE_TIME = 14;
+    public static final int OFFSET_CREATE_DATE = 16;
+    public static final int OFFSET_LAST_ACCESS_DATE = 18;
+    public static final int OFFSET_LAST_WRITE_TIME = 20;
+    public static final int OFFSET_LAST_WRITE_DATE = 22;
+    public static final int OFFSET_STARTING_CLUSTER = 24;
+    public static final int OFFSET_FILE_SIZE = 26;
+
+    public static final int OFFSET_LFN_ORDINAL = 0;
+    public static final int OFFSET_LFN_PART1 = 1;
+    public static final int OFFSET_LFN_PART2 = 12;
+
+    private DirectoryEntryCodec() {
+    }
+
+    //
+    // 字段读取
+    //
+
+    public static boolean isLfn(byte[] data, int offset) {
+        return (data[offset + OFFSET_ATTRS] & LfnEntry.ATTR_MASK_LFN) == LfnEntry.ATTR_MASK_LFN;
+    }
+
+    public static boolean isLfn(ByteBuffer buf, int offset) {
+        return (buf.get(offset + OFFSET_ATTRS) & LfnEntry.ATTR_MASK_LFN) == LfnEntry.ATTR_MASK_LFN;
+    }
+
+    /**
+     * @return 是否空闲目录项，长文件名项不是空闲项
+     */
+    public static boolean isFree(byte[] data, int offset) {
+        return !isLfn(data, offset) && data[offset + OFFSET_FILE_NAME] == 0;
+    }
+
+    public static boolean isFree(ByteBuffer buf, int offset) {
+        return !isLfn(buf, offset) && buf.get(offset + OFFSET_FILE_NAME) == 0;
+    }
+
+    public static byte attrs(byte[] data, int offset) {
+        return data[offset + OFFSET_ATTRS];
+    }
+
+    public static int startingCluster(byte[] data, int offset) {
+        return getShort(data, offset + OFFSET_STARTING_CLUSTER) & 0xFFFF;
+    }
+
+    public static int fileSize(byte[] data, int offset) {
+        return getInt(data, offset + OFFSET_FILE_SIZE);
+    }
+
+    //
+    // 整项读写
+    //
+
+    public static void read(byte[] data, int offset, DirectoryEntry e) {
+        System.arraycopy(data, offset + OFFSET_FILE_NAME, e.fileName, 0, 8);
+        System.arraycopy(data, offset + OFFSET_EXTENSION, e.extension, 0, 3);
+        e.attrs = data[offset + OFFSET_ATTRS];
+        e.reserved = data[offset + OFFSET_RESERVED];
+        e.creation = data[offset + OFFSET_CREATION];
+        e.createTime = getShort(data, offset + OFFSET_CREATE_TIME);
+        e.createDate = getShort(data, offset + OFFSET_CREATE_DATE);
+        e.lastAccessDate = getShort(data, offset + OFFSET_LAST_ACCESS_DATE);
+        e.lastWriteTime = getShort(data, offset + OFFSET_LAST_WRITE_TIME);
+        e.lastWriteDate = getShort(data, offset + OFFSET_LAST_WRITE_DATE);
+        e.startingCluster = getShort(data, offset + OFFSET_STARTING_CLUSTER);
+        e.fileSize = getInt(data, offset + OFFSET_FILE_SIZE);
+    }
+
+    public static void read(byte[] data, int offset, LfnEntry e) {
+        e.ordinal = data[offset + OFFSET_LFN_ORDINAL];
+        System.arraycopy(data, offset + OFFSET_LFN_PART1, e.part1, 0, 10);
+        e.attrs = data[offset + OFFSET_ATTRS];
+        System.arraycopy(data, offset + OFFSET_LFN_PART2, e.part2, 0, 20);
+    }
+
+    public static void write(DirectoryEntry e, byte[] data, int offset) {
+        System.arraycopy(e.fileName, 0, data, offset + OFFSET_FILE_NAME, 8);
+        System.arraycopy(e.extension, 0, data, offset + OFFSET_EXTENSION, 3);
+        data[offset + OFFSET_ATTRS] = e.attrs;
+        data[offset + OFFSET_RESERVED] = e.reserved;
+        data[offset + OFFSET_CREATION] = e.creation;
+        putShort(data, offset + OFFSET_CREATE_TIME, e.createTime);
+        putShort(data, offset + OFFSET_CREATE_DATE, e.createDate);
+        putShort(data, offset + OFFSET_LAST_ACCESS_DATE, e.lastAccessDate);
+        putShort(data, offset + OFFSET_LAST_WRITE_TIME, e.lastWriteTime);
+        putShort(data, offset + OFFSET_LAST_WRITE_DATE, e.lastWriteDate);
+        putShort(data, offset + OFFSET_STARTING_CLUSTER, e.startingCluster);
+        putInt(data, offset + OFFSET_FILE_SIZE, e.fileSize);
+        data[offset + 30] = 0;
+        data[offset + 31] = 0;
+    }
+
+    public static void write(LfnEntry e, byte[] data, int offset) {
+        data[offset + OFFSET_LFN_ORDINAL] = e.ordinal;
+        System.arraycopy(e.part1, 0, data, offset + OFFSET_LFN_PART1, 10);
+        data[offset + OFFSET_ATTRS] = e.attrs;
+        System.arraycopy(e.part2, 0, data, offset + OFFSET_LFN_PART2, 20);
+    }
+
+    public static void read(ByteBuffer buf, int offset, DirectoryEntry e) {
+        if (buf.hasArray()) {
+            read(buf.array(), buf.arrayOffset() + offset, e);
+            return;
+        }
+
+        getBytes(buf, offset + OFFSET_FILE_NAME, e.fileName, 8);
+        getBytes(buf, offset + OFFSET_EXTENSION, e.extension, 3);
+        e.attrs = buf.get(offset + OFFSET_ATTRS);
+        e.reserved = buf.get(offset + OFFSET_RESERVED);
+        e.creation = buf.get(offset + OFFSET_CREATION);
+        e.createTime = buf.getShort(offset + OFFSET_CREATE_TIME);
+        e.createDate = buf.getShort(offset + OFFSET_CREATE_DATE);
+        e.lastAccessDate = buf.getShort(offset + OFFSET_LAST_ACCESS_DATE);
+        e.lastWriteTime = buf.getShort(offset + OFFSET_LAST_WRITE_TIME);
+        e.lastWriteDate = buf.getShort(offset + OFFSET_LAST_WRITE_DATE);
+        e.startingCluster = buf.getShort(offset + OFFSET_STARTING_CLUSTER);
+        e.fileSize = buf.getInt(offset + OFFSET_FILE_SIZE);
+    }
+
+    public static void read(ByteBuffer buf, int offset, LfnEntry e) {
+        if (buf.hasArray()) {
+            read(buf.array(), buf.arrayOffset() + offset, e);
+            return;
+        }
+
+        e.ordinal = buf.get(offset + OFFSET_LFN_ORDINAL);
+        getBytes(buf, offset + OFFSET_LFN_PART1, e.part1, 10);
+        e.attrs = buf.get(offset + OFFSET_ATTRS);
+        getBytes(buf, offset + OFFSET_LFN_PART2, e.part2, 20);
+    }
+
+    public static void write(DirectoryEntry e, ByteBuffer buf, int offset) {
+        if (buf.hasArray()) {
+            write(e, buf.array(), buf.arrayOffset() + offset);
+            return;
+        }
+
+        putBytes(buf, offset + OFFSET_FILE_NAME, e.fileName, 8);
+        putBytes(buf, offset + OFFSET_EXTENSION, e.extension, 3);
+        buf.put(offset + OFFSET_ATTRS, e.attrs);
+        buf.put(offset + OFFSET_RESERVED, e.reserved);
+        buf.put(offset + OFFSET_CREATION, e.creation);
+        buf.putShort(offset + OFFSET_CREATE_TIME, e.createTime);
+        buf.putShort(offset + OFFSET_CREATE_DATE, e.createDate);
+        buf.putShort(offset + OFFSET_LAST_ACCESS_DATE, e.lastAccessDate);
+        buf.putShort(offset + OFFSET_LAST_WRITE_TIME, e.lastWriteTime);
+        buf.putShort(offset + OFFSET_LAST_WRITE_DATE, e.lastWriteDate);
+        buf.putShort(offset + OFFSET_STARTING_CLUSTER, e.startingCluster);
+        buf.putInt(offset + OFFSET_FILE_SIZE, e.fileSize);
+        buf.putShort(offset + 30, (short) 0);
+    }
+
+    public static void write(LfnEntry e, ByteBuffer buf, int offset) {
+        if (buf.hasArray()) {
+            write(e, buf.array(), buf.arrayOffset() + offset);
+            return;
+        }
+
+        buf.put(offset + OFFSET_LFN_ORDINAL, e.ordinal);
+        putBytes(buf, offset + OFFSET_LFN_PART1, e.part1, 10);
+        buf.put(offset + OFFSET_ATTRS, e.attrs);
+        putBytes(buf, offset + OFFSET_LFN_PART2, e.part2, 20);
+    }
+
+    private static short getShort(byte[] data, int pos) {
+        return (short) ((data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF));
+    }
+
+    private static int getInt(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8
+                | (data[pos + 3] & 0xFF);
+    }
+
+    private static void putShort(byte[] data, int pos, short value) {
+        data[pos] = (byte) (value >>> 8);
+        data[pos + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] data, int pos, int value) {
+        data[pos] = (byte) (value >>> 24);
+        data[pos + 1] = (byte) (value >>> 16);
+        data[pos + 2] = (byte) (value >>> 8);
+        data[pos + 3] = (byte) value;
+    }
+
+    private static void getBytes(ByteBuffer buf, int pos, byte[] dst, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[i] = buf.get(pos + i);
+        }
+    }
+
+    private static void putBytes(ByteBuffer buf, int pos, byte[] src, int length) {
+        for (int i = 0; i < length; i++) {
+            buf.put(pos + i, src[i]);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cooder.mos.fs.fat16.Layout.DirectoryEntry;
+
+/**
+ * 已展开目录的紧凑内存表示。
+ * <p>
+ * 目录的全部目录项按磁盘格式连续保存在一个字节数组中（每项32字节），各字段通过{@link DirectoryEntryCodec}按偏移读取；
+ * 目录项节点{@link DirectoryTreeNode}只在被访问时才创建，创建后在目录折叠前保持同一对象。
+ * <p>
+ * 首次按名称查找时建立名称到位置的哈希索引，之后随{@link #store(int, DirectoryEntry)}增量维护。
+ * <p>
+ * 空闲目录项以位图记录，同样随{@link #store(int, DirectoryEntry)}维护；查找连续空闲项时按空闲段跳跃，不逐项解码。
+ */
+public class DirectorySlots {
+    public static final int SLOTS_PER_SECTOR = Layout.PER_SECTOR_SIZE / Layout.PER_DIRECTOR_ENTRY_SIZE;
+
+    /**
+     * 单个目录项节点及其目录项对象的内存估算
+     */
+    private static final int NODE_FOOTPRINT = 128;
+
+    private final DirectoryTreeNode dir;
+    private byte[] data;
+    private int[] sectors;
+    private DirectoryTreeNode[] nodes;
+    private final BitSet free;
+    private int materialized = 0;
+    private Map<String, Integer> names;
+    private String[] keys;
+    private ShortNameAllocator shortNames;
+
+    /**
+     * @param dir 所属目录
+     * @param data 目录的全部目录项数据
+     * @param sectors 目录数据依次所在的扇区
+     */
+    public DirectorySlots(DirectoryTreeNode dir, byte[] data, int[] sectors) {
+        if (data.length != sectors.length * Layout.PER_SECTOR_SIZE) {
+            throw new IllegalArgumentException("data size does not match sectors");
+        }
+
+        this.dir = dir;
+        this.data = data;
+        this.sectors = sectors;
+        this.nodes = new DirectoryTreeNode[data.length / Layout.PER_DIRECTOR_ENTRY_SIZE];
+        this.free = new BitSet(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            if (isFree(i)) {
+                free.set(i);
+            }
+        }
+    }
+
+    /**
+     * 目录扩展了新的扇区，在原有目录项之后追加全部为空闲的目录项，已创建的节点保持不变
+     *
+     * @param newSectors 新增的扇区，磁盘上已清零
+     */
+    public void grow(int[] newSectors) {
+        int oldSize = nodes.length;
+        int sectorCount = sectors.length;
+
+        sectors = Arrays.copyOf(sectors, sectorCount + newSectors.length);
+        System.arraycopy(newSectors, 0, sectors, sectorCount, newSectors.length);
+        data = Arrays.copyOf(data, sectors.length * Layout.PER_SECTOR_SIZE);
+        nodes = Arrays.copyOf(nodes, data.length / Layout.PER_DIRECTOR_ENTRY_SIZE);
+        if (keys != null) {
+            keys = Arrays.copyOf(keys, nodes.length);
+        }
+        free.set(oldSize, nodes.length);
+    }
+
+    /**
+     * @return 占用内存的估算（字节），包括目录数据和已创建的节点
+     */
+    public long footprint() {
+        return data.length + (long) nodes.length * Integer.BYTES + (long) materialized * NODE_FOOTPRINT;
+    }
+
+    /**
+     * @return 目录项数量，包括空闲项
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    public byte[] data() {
+        return data;
+    }
+
+    /**
+     * @return 目录项在{@link #data()}中的偏移
+     */
+    public int offset(int slot) {
+        return slot * Layout.PER_DIRECTOR_ENTRY_SIZE;
+    }
+
+    public int sectorIdx(int slot) {
+        return sectors[slot / SLOTS_PER_SECTOR];
+    }
+
+    /**
+     * @return 目录中第pos个扇区的磁盘扇区号
+     */
+    public int sectorAt(int pos) {
+        return sectors[pos];
+    }
+
+    public int sectorCount() {
+        return sectors.length;
+    }
+
+    public int sectorOffset(int slot) {
+        return (slot % SLOTS_PER_SECTOR) * Layout.PER_DIRECTOR_ENTRY_SIZE;
+    }
+
+    public boolean isLfn(int slot) {
+        return DirectoryEntryCodec.isLfn(data, offset(slot));
+    }
+
+    public boolean isFree(int slot) {
+        return DirectoryEntryCodec.isFree(data, offset(slot));
+    }
+
+    /**
+     * @return 是否为有效的文件或目录项
+     */
+    public boolean isValid(int slot) {
+        return !isLfn(slot) && !isFree(slot);
+    }
+
+    /**
+     * @return 第一个空闲目录项的位置，没有空闲项时返回-1
+     */
+    public int nextFree() {
+        int slot = free.nextSetBit(0);
+        return slot < nodes.length ? slot : -1;
+    }
+
+    /**
+     * 查找连续count个空闲目录项
+     *
+     * @return 第一个目录项的位置，找不到时返回-1
+     */
+    public int nextFreeRun(int count) {
+        int start = free.nextSetBit(0);
+        while (start >= 0 && start < nodes.length) {
+            int end = Math.min(free.nextClearBit(start), nodes.length);
+            if (end - start >= count) {
+                return start;
+            }
+            start = free.nextSetBit(end);
+        }
+        return -1;
+    }
+
+    /**
+     * @return 空闲目录项数量
+     */
+    public int freeCount() {
+        return free.cardinality();
+    }
+
+    /**
+     * 比较短文件名
+     */
+    public boolean nameEquals(int slot, byte[] fileName) {
+        if (isLfn(slot)) {
+            return false;
+        }
+
+        int off = offset(slot);
+        for (int i = 0; i < DirectoryEntry.FILE_NAME_LENGTH; i++) {
+            if (data[off + i] != fileName[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按名称查找目录项，长文件名和短文件名均可
+     *
+     * @return 目录项位置，不存在时返回-1
+     */
+    public int lookup(String name) {
+        if (names == null) {
+            buildIndex();
+        }
+
+        Integer slot = names.get(name);
+        if (slot == null && !isPlainShortName(name)) {
+            // 短文件名按前8个字节比较
+            slot = names.get(DirectoryTreeNode.byteArray2String(
+                    DirectoryTreeNode.string2ByteArray(name, DirectoryEntry.FILE_NAME_LENGTH)));
+        }
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * 获取目录项节点，不存在时创建
+     */
+    public DirectoryTreeNode node(int slot) {
+        DirectoryTreeNode node = nodes[slot];
+        if (node == null) {
+            node = dir.newChild(this, slot);
+            node.setSlot(slot);
+            node.setSectorIdx(sectorIdx(slot));
+            node.setSectorOffset(sectorOffset(slot));
+            nodes[slot] = node;
+            materialized++;
+        }
+        return node;
+    }
+
+    /**
+     * @return 已创建的目录项节点，未创建时返回null
+     */
+    public DirectoryTreeNode peek(int slot) {
+        return nodes[slot];
+    }
+
+    /**
+     * 将目录项写入内存数据，与磁盘保持一致
+     */
+    public void store(int slot, DirectoryEntry entry) {
+        boolean sameName = isValid(slot) && !entry.isLfn() && nameEquals(slot, entry.fileName);
+        if (shortNames != null && !sameName && isValid(slot)) {
+            shortNames.remove(shortName(slot));
+        }
+
+        entry.writeTo(data, offset(slot));
+        free.set(slot, isFree(slot));
+
+        if (sameName) {
+            return;
+        }
+        if (names != null) {
+            unindex(slot);
+            if (isValid(slot)) {
+                index(slot);
+            }
+        }
+        if (shortNames != null && isValid(slot)) {
+            shortNames.add(shortName(slot));
+        }
+    }
+
+    /**
+     * @return 目录的短文件名分配器，首次调用时根据已有目录项建立
+     */
+    public ShortNameAllocator shortNames() {
+        if (shortNames == null) {
+            shortNames = new ShortNameAllocator();
+            for (int i = 0; i < nodes.length; i++) {
+                if (isValid(i)) {
+                    shortNames.add(shortName(i));
+                }
+            }
+        }
+        return shortNames;
+    }
+
+    private String shortName(int slot) {
+        return DirectoryTreeNode.byteArray2String(data, offset(slot), DirectoryEntry.FILE_NAME_LENGTH);
+    }
+
+    private void buildIndex() {
+        names = new HashMap<>();
+        keys = new String[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            if (isValid(i)) {
+                index(i);
+            }
+        }
+    }
+
+    private void index(int slot) {
+        String key = dir.slotKey(this, slot);
+        keys[slot] = key;
+        names.putIfAbsent(key, slot);
+    }
+
+    private void unindex(int slot) {
+        String key = keys[slot];
+        if (key != null) {
+            names.remove(key, slot);
+            keys[slot] = null;
+        }
+    }
+
+    /**
+     * @return 名称是否可以直接作为短文件名的索引键
+     */
+    private static boolean isPlainShortName(String name) {
+        if (name.length() > DirectoryEntry.FILE_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == 0 || c >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
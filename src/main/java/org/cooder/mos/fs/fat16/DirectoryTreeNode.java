@@ -10,31 +10,74 @@ package org.cooder.mos.fs.fat16;
 
 import org.cooder.mos.fs.IFileSystem;
 import org.cooder.mos.fs.fat16.Layout.DirectoryEntry;
+import org.cooder.mos.fs.fat16.Layout.LfnEntry;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.cooder.mos.fs.fat16.Layout.DirectoryEntry.FILE_NAME_LENGTH;
-import static org.cooder.mos.fs.fat16.Layout.LfnEntry.SHORT_NAME_FLAG;
 
 public class DirectoryTreeNode {
     public DirectoryEntry entry;
     public final DirectoryTreeNode parent;
-    public DirectoryTreeNode[] children;
+    public DirectorySlots slots;
+    public int slot = -1;
     public int sectorIdx = -1;
     public int sectorOffset = -1;
-    public boolean fold = true;
+
+    /**
+     * 缓存的路径及其计算时父节点的路径，父节点路径变化时重新计算
+     */
+    private String path;
+    private String pathBase;
+    private String[] pathComponents;
+    private String[] pathComponentsBase;
+
+    private static final String[] ROOT_PATH_COMPONENTS = new String[0];
 
     public DirectoryTreeNode(DirectoryTreeNode parent, DirectoryEntry entry) {
         this.parent = parent;
         this.entry = entry;
     }
 
+    /**
+     * @return 展开后的目录项，折叠时为null
+     */
+    public DirectorySlots getSlots() {
+        return slots;
+    }
+
+    /**
+     * @return 有效的子文件和子目录
+     */
     public DirectoryTreeNode[] getChildren() {
-        return children;
+        if (slots == null) {
+            return new DirectoryTreeNode[0];
+        }
+
+        List<DirectoryTreeNode> children = new ArrayList<>();
+        for (int i = 0; i < slots.size(); i++) {
+            if (slots.isValid(i)) {
+                children.add(slots.node(i));
+            }
+        }
+        return children.toArray(new DirectoryTreeNode[0]);
+    }
+
+    /**
+     * 创建指定位置的子节点，由{@link DirectorySlots}在首次访问该位置时调用
+     */
+    protected DirectoryTreeNode newChild(DirectorySlots slots, int slot) {
+        return new DirectoryTreeNode(this, DirectoryEntry.from(slots.data(), slots.offset(slot)));
     }
 
-    public void setChildren(DirectoryTreeNode[] children) {
-        this.children = children;
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
     }
 
     public int getSectorIdx() {
@@ -66,15 +109,28 @@ public class DirectoryTreeNode {
     }
 
     public boolean isFold() {
-        return fold;
+        return slots == null;
     }
 
-    public void unfold() {
-        this.fold = false;
+    public void unfold(DirectorySlots slots) {
+        this.slots = slots;
     }
 
     public void fold() {
-        this.fold = true;
+        this.slots = null;
+    }
+
+    /**
+     * @return 节点是否仍在目录树中；祖先目录被折叠后，之前取得的节点不再被目录树引用
+     */
+    public boolean isAttached() {
+        for (DirectoryTreeNode n = this; n.parent != null; n = n.parent) {
+            DirectorySlots parentSlots = n.parent.slots;
+            if (parentSlots == null || n.slot < 0 || parentSlots.peek(n.slot) != n) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public String getName() {
@@ -90,12 +146,38 @@ public class DirectoryTreeNode {
             return "";
         }
 
-        StringBuilder sb = new StringBuilder();
-        if (parent != null) {
-            sb.append(parent.getPath()).append(IFileSystem.separator);
+        String base = parent.getPath();
+        if (path == null || base != pathBase) {
+            pathBase = base;
+            path = base + IFileSystem.separator + getName();
         }
-        sb.append(getName());
-        return sb.toString();
+        return path;
+    }
+
+    /**
+     * 路径的各级名称，与{@code Utils.normalizePath(getPath())}相同，结果被缓存共享，调用方不能修改
+     */
+    public String[] getPathComponents() {
+        if (isRoot()) {
+            return ROOT_PATH_COMPONENTS;
+        }
+
+        String[] base = parent.getPathComponents();
+        if (pathComponents == null || base != pathComponentsBase) {
+            String[] components = Arrays.copyOf(base, base.length + 1);
+            components[base.length] = getName();
+            pathComponentsBase = base;
+            pathComponents = components;
+        }
+        return pathComponents;
+    }
+
+    /**
+     * 名称变化后丢弃缓存的路径，子孙节点通过父路径的变化随之重新计算
+     */
+    protected void invalidatePath() {
+        path = null;
+        pathComponents = null;
     }
 
     public DirectoryTreeNode find(String name) {
@@ -107,26 +189,45 @@ public class DirectoryTreeNode {
             throw new IllegalStateException();
         }
 
-        if (children == null) {
-            return null;
-        }
-
-        DirectoryTreeNode node;
-        for (int i = 0; i < children.length; i++) {
-            node = children[i];
-            if (node.nameEquals(name)) {
-                return node;
-            }
-        }
+        int slot = slots.lookup(name);
+        return slot < 0 ? null : slots.node(slot);
+    }
 
-        return null;
+    /**
+     * 子目录项在名称索引中的键，直接从目录数据中读取，不创建节点
+     */
+    protected String slotKey(DirectorySlots slots, int slot) {
+        return byteArray2String(slots.data(), slots.offset(slot), FILE_NAME_LENGTH);
     }
 
     public boolean nameEquals(String fileName) {
-        if (Layout.isLFN(entry.toBytes())) {
+        if (entry.isLfn()) {
             return false;
         }
-        return Arrays.equals(entry.fileName, string2ByteArray(fileName, FILE_NAME_LENGTH));
+        return nameEquals(entry.fileName, 0, FILE_NAME_LENGTH, fileName);
+    }
+
+    /**
+     * 比较短文件名，等价于比较b中的length个字节与{@code string2ByteArray(name, length)}，名称为ASCII时不分配内存
+     */
+    public static boolean nameEquals(byte[] b, int offset, int length, String name) {
+        int n = name.length();
+        for (int i = 0; i < length; i++) {
+            int c = i < n ? name.charAt(i) : 0;
+            if (c >= 0x80) {
+                byte[] expected = string2ByteArray(name, length);
+                for (int j = 0; j < length; j++) {
+                    if (b[offset + j] != expected[j]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (b[offset + i] != (byte) c) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static byte[] string2ByteArray(String name, int length) {
@@ -137,8 +238,12 @@ public class DirectoryTreeNode {
     }
 
     public static String byteArray2String(byte[] b) {
+        return byteArray2String(b, 0, b.length);
+    }
+
+    public static String byteArray2String(byte[] b, int offset, int length) {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < b.length; i++) {
+        for (int i = offset; i < offset + length; i++) {
             if (b[i] == 0) {
                 break;
             }
@@ -147,14 +252,25 @@ public class DirectoryTreeNode {
         return sb.toString();
     }
 
+    /**
+     * 在空闲目录项中创建子项
+     *
+     * @return 新建的节点，目录已满时返回null
+     */
     public DirectoryTreeNode create(String name, boolean isDir) {
         DirectoryTreeNode node = nextFreeNode();
+        if (node == null) {
+            return null;
+        }
+
         DirectoryEntry entry = node.entry;
 
         byte[] b = string2ByteArray(name, FILE_NAME_LENGTH);
         System.arraycopy(b, 0, entry.fileName, 0, b.length);
         entry.attrs |= isDir ? DirectoryEntry.ATTR_MASK_DIR : 0;
         node.setWriteTime(System.currentTimeMillis());
+        node.invalidatePath();
+        slots.store(node.slot, entry);
 
         return node;
     }
@@ -168,15 +284,9 @@ public class DirectoryTreeNode {
             throw new IllegalStateException();
         }
 
-        if (children == null) {
-            return null;
-        }
-
-        DirectoryTreeNode node = null;
-        for (int i = 0; i < children.length; i++) {
-            node = children[i];
-            if (!node.isFree()) {
-                return node;
+        for (int i = 0; i < slots.size(); i++) {
+            if (!slots.isFree(i)) {
+                return slots.node(i);
             }
         }
         return null;
@@ -191,22 +301,12 @@ public class DirectoryTreeNode {
             throw new IllegalStateException();
         }
 
-        if (children == null) {
-            return null;
-        }
-
-        DirectoryTreeNode node = null;
-        for (int i = 0; i < children.length; i++) {
-            node = children[i];
-            if (node.isFree()) {
-                return node;
-            }
-        }
-        return null;
+        int slot = slots.nextFree();
+        return slot < 0 ? null : slots.node(slot);
     }
 
     public boolean isFree() {
-        if (Layout.isLFN(entry.toBytes())) {
+        if (entry.isLfn()) {
             return false;
         }
         return entry.fileName[0] == 0;
@@ -216,16 +316,26 @@ public class DirectoryTreeNode {
         if (entry == null) {
             return false;
         }
-        if (Layout.isLFN(entry.toBytes())) {
+        if (entry.isLfn()) {
             return false;
         }
         return !isFree();
     }
 
     public void reset() {
-        this.fold = true;
         this.entry = new DirectoryEntry();
-        this.children = null;
+        this.slots = null;
+        invalidatePath();
+        store();
+    }
+
+    /**
+     * 将目录项同步到父目录的内存数据，父目录已折叠时忽略
+     */
+    public void store() {
+        if (parent != null && parent.slots != null && slot >= 0) {
+            parent.slots.store(slot, entry);
+        }
     }
 
     public void setFileSize(int fileSize) {
@@ -249,7 +359,15 @@ public class DirectoryTreeNode {
         return entry.fileSize;
     }
 
+    /**
+     * @return 目录项之前是否有长文件名项，不支持长文件名时无法同时删除这些项
+     */
     public boolean containsUnknownInfo() {
-        return Arrays.equals(new byte[]{entry.fileName[FILE_NAME_LENGTH - 2]}, string2ByteArray(SHORT_NAME_FLAG, 1));
+        DirectorySlots parentSlots = parent == null ? null : parent.slots;
+        if (parentSlots == null || slot < 0) {
+            // 父目录已折叠，按短文件名的序号标志判断
+            return entry.fileName[FILE_NAME_LENGTH - 2] == LfnEntry.SHORT_NAME_FLAG.charAt(0);
+        }
+        return slot > 0 && parentSlots.isLfn(slot - 1);
     }
 }
@@ -5,10 +5,10 @@ import org.cooder.mos.fs.fat16.Layout.DirectoryEntry;
 import org.cooder.mos.fs.fat16.Layout.LfnEntry;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.cooder.mos.fs.fat16.Layout.LfnEntry.*;
-import static org.cooder.mos.fs.fat16.Layout.isLFN;
 
 /**
  * @author renqianqian
@@ -19,6 +19,11 @@ public class DirectoryTreeNodeWithLFN extends DirectoryTreeNode {
     private LfnEntry[] lfnEntries;
     private String lfn;
 
+    /**
+     * 第一个长文件名项在父目录中的位置，长文件名项连续排列在短目录项之前
+     */
+    private int lfnSlot = -1;
+
     public DirectoryTreeNodeWithLFN(DirectoryTreeNode parent, DirectoryEntry entry) {
         super(parent, entry);
     }
@@ -32,6 +37,7 @@ public class DirectoryTreeNodeWithLFN extends DirectoryTreeNode {
         if (lfnEntries != null) {
             this.lfn = convertLfn(lfnEntries);
         }
+        invalidatePath();
     }
 
     @Override
@@ -55,6 +61,65 @@ public class DirectoryTreeNodeWithLFN extends DirectoryTreeNode {
         }
     }
 
+    @Override
+    protected DirectoryTreeNode newChild(DirectorySlots slots, int slot) {
+        byte[] data = slots.data();
+        if (slots.isLfn(slot)) {
+            return new DirectoryTreeNodeWithLFN(this, LfnEntry.from(data, slots.offset(slot)));
+        }
+
+        DirectoryTreeNodeWithLFN node = new DirectoryTreeNodeWithLFN(this, DirectoryEntry.from(data, slots.offset(slot)));
+        if (!slots.isFree(slot)) {
+            // 紧邻在短目录项之前的长文件名项，序号从1开始倒序排列
+            List<LfnEntry> lfnEntries = new ArrayList<>();
+            int i = slot - 1;
+            for (; i >= 0 && slots.isLfn(i); i--) {
+                LfnEntry lfnEntry = (LfnEntry) slots.node(i).entry;
+                lfnEntries.add(lfnEntry);
+                if (lfnEntry.last()) {
+                    break;
+                }
+            }
+            node.setLfnEntries(transform(lfnEntries));
+            if (node.lfnEntries != null) {
+                node.lfnSlot = slot - node.lfnEntries.length;
+            }
+        }
+        return node;
+    }
+
+    @Override
+    protected String slotKey(DirectorySlots slots, int slot) {
+        String lfn = lfnName(slots, slot);
+        if (StringUtils.isBlank(lfn)) {
+            return super.slotKey(slots, slot);
+        }
+        return lfn;
+    }
+
+    /**
+     * 直接从目录数据中读取指定短目录项的长文件名
+     *
+     * @return 长文件名，没有长文件名时返回null
+     */
+    private static String lfnName(DirectorySlots slots, int slot) {
+        if (slot == 0 || !slots.isLfn(slot - 1)) {
+            return null;
+        }
+
+        byte[] data = slots.data();
+        StringBuilder sb = new StringBuilder();
+        for (int i = slot - 1; i >= 0 && slots.isLfn(i); i--) {
+            int off = slots.offset(i);
+            sb.append(byteArray2String(data, off + DirectoryEntryCodec.OFFSET_LFN_PART1, 10));
+            sb.append(byteArray2String(data, off + DirectoryEntryCodec.OFFSET_LFN_PART2, 20));
+            if ((data[off + DirectoryEntryCodec.OFFSET_LFN_ORDINAL] & ORDINAL_MASK_LAST) != 0) {
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
     @Override
     public DirectoryTreeNode create(String name, boolean isDir) {
         if (Boolean.FALSE.equals(needLfn(name))) {
@@ -64,15 +129,16 @@ public class DirectoryTreeNodeWithLFN extends DirectoryTreeNode {
         // 长文件名生成目录项
         int length = lfnCount(name) + 1;
         DirectoryTreeNode[] nodes = nextFreeNode(length);
+        if (nodes == null) {
+            return null;
+        }
 
         // 填充lfn
         LfnEntry[] lfnEntries = new LfnEntry[length - 1];
         int lfnSize = lfnEntries.length * Layout.PER_DIRECTOR_ENTRY_SIZE;
-        ByteBuffer buf = ByteBuffer.allocateDirect(lfnSize);
-        buf.put(string2ByteArray(name, lfnSize));
-        buf.rewind();
+        ByteBuffer buf = ByteBuffer.wrap(string2ByteArray(name, lfnSize));
         for (int i = nodes.length - 2, num = 0; i >= 0; i--, num++) {
-            LfnEntry entry = LfnEntry.from(nodes[i].entry.toBytes());
+            LfnEntry entry = new LfnEntry();
 
             entry.ordinal = (byte) (ORDINAL_MASK_NUM & num + 1);
             entry.ordinal |= i == 0 ? 1 << 6 : 0;
@@ -82,51 +148,22 @@ public class DirectoryTreeNodeWithLFN extends DirectoryTreeNode {
 
             nodes[i].entry = entry;
             lfnEntries[num] = entry;
+            slots.store(nodes[i].slot, entry);
         }
 
         // 填充目录项
         DirectoryTreeNodeWithLFN node = (DirectoryTreeNodeWithLFN) nodes[length - 1];
-        byte[] b = getShortName(name, DirectoryEntry.FILE_NAME_LENGTH);
+        byte[] b = slots.shortNames().allocate(name);
         System.arraycopy(b, 0, node.entry.fileName, 0, b.length);
         node.entry.attrs |= isDir ? DirectoryEntry.ATTR_MASK_DIR : 0;
         node.setWriteTime(System.currentTimeMillis());
         node.setLfnEntries(lfnEntries);
+        node.lfnSlot = nodes[0].slot;
+        slots.store(node.slot, node.entry);
 
         return node;
     }
 
-    /**
-     * 获取短文件名
-     * todo 最多支持9个同名前缀文件
-     *
-     * @param lfn
-     * @param length
-     * @return
-     */
-    private byte[] getShortName(String lfn, int length) {
-        int[] sameNamePrefix = new int[9];
-        String fnPrefix = lfn.substring(0, length - 2);
-        for (DirectoryTreeNode child : this.children) {
-            DirectoryTreeNodeWithLFN childWithLFN = (DirectoryTreeNodeWithLFN) child;
-            if (StringUtils.isNotBlank(childWithLFN.lfn) && childWithLFN.lfn.startsWith(fnPrefix)) {
-                int sameNameNum = Integer.parseInt(byteArray2String(childWithLFN.entry.fileName).substring(length - 1));
-                sameNamePrefix[sameNameNum - 1] = sameNameNum;
-            }
-        }
-
-        int desNum = 0;
-        for (int i = 0; i < sameNamePrefix.length; i++) {
-            if (sameNamePrefix[i] == 0) {
-                desNum = i + 1;
-                break;
-            }
-        }
-        if (desNum == 0) {
-            throw new IllegalStateException("only can create up to 9 files with the same prefix :" + fnPrefix);
-        }
-        return string2ByteArray(fnPrefix + SHORT_NAME_FLAG + desNum, length);
-    }
-
     private Boolean needLfn(String name) {
         return name.getBytes().length > DirectoryEntry.FILE_NAME_LENGTH;
     }
@@ -149,33 +186,17 @@ public class DirectoryTreeNodeWithLFN extends DirectoryTreeNode {
             throw new IllegalStateException();
         }
 
-        if (children == null) {
+        // 查找连续count个空闲项
+        int start = slots.nextFreeRun(count);
+        if (start < 0) {
             return null;
         }
 
         DirectoryTreeNode[] nodes = new DirectoryTreeNodeWithLFN[count];
-        int[] idxes = new int[count];
-        int p = 0;
-        for (int i = 0; i < children.length; i++) {
-            if (p == count) {
-                break;
-            }
-
-            DirectoryTreeNode node = children[i];
-            if (node.isFree()) {
-                if (p - 1 < 0 || idxes[p - 1] == i - 1) {
-                    nodes[p] = node;
-                    idxes[p] = i;
-                    p++;
-                } else {
-                    p = 0;
-                }
-
-            } else {
-                p = 0;
-            }
+        for (int j = 0; j < count; j++) {
+            nodes[j] = slots.node(start + j);
         }
-        return p == count ? nodes : null;
+        return nodes;
     }
 
     @Override
@@ -188,7 +209,7 @@ public class DirectoryTreeNodeWithLFN extends DirectoryTreeNode {
 
     @Override
     public boolean valid() {
-        return entry != null && !isFree() && !isLFN(entry.toBytes());
+        return entry != null && !isFree() && !entry.isLfn();
     }
 
     @Override
@@ -196,6 +217,7 @@ public class DirectoryTreeNodeWithLFN extends DirectoryTreeNode {
         super.reset();
         this.lfnEntries = null;
         this.lfn = null;
+        this.lfnSlot = -1;
     }
 
     public DirectoryTreeNode[] getLfnNodes() {
@@ -203,24 +225,32 @@ public class DirectoryTreeNodeWithLFN extends DirectoryTreeNode {
             return null;
         }
 
-        int idx = -1;
-        for (int i = 0; i < this.parent.children.length; i++) {
-            DirectoryEntry entry = this.parent.children[i].entry;
-            if (!(entry instanceof Layout.LfnEntry)
-                    && Arrays.equals(this.entry.fileName, entry.fileName)) {
-                idx = i;
-                break;
-            }
-        }
-
-        int startIdx = idx - this.lfnEntries.length;
+        DirectorySlots parentSlots = this.parent.slots;
         DirectoryTreeNode[] lfnNodes = new DirectoryTreeNode[this.lfnEntries.length];
         for (int i = 0; i < lfnNodes.length; i++) {
-            lfnNodes[i] = this.parent.children[startIdx + i];
+            lfnNodes[i] = parentSlots.node(lfnSlot + i);
         }
         return lfnNodes;
     }
 
+    private static LfnEntry[] transform(List<LfnEntry> origin) {
+        if (origin.isEmpty()) {
+            return null;
+        }
+        int i = 1;
+        for (LfnEntry entry : origin) {
+            if (i != entry.lfnNum()) {
+                throw new IllegalStateException("lfn num is not right");
+            }
+            i++;
+        }
+        if (!origin.get(i - 2).last()) {
+            throw new IllegalStateException("not find last lfn");
+        }
+
+        return origin.toArray(new LfnEntry[0]);
+    }
+
     private String convertLfn(LfnEntry[] lfnEntries) {
         StringBuilder sb = new StringBuilder();
         for (LfnEntry lfnEntry : lfnEntries) {
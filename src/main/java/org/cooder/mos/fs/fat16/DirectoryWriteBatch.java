@@ -0,0 +1,70 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import org.cooder.mos.device.IDisk;
+
+/**
+ * 目录项批量写入：收集同一目录中被修改的目录项，按扇区合并后每个扇区只写一次。
+ * <p>
+ * 已展开目录的内存数据与磁盘一致，扇区内容直接取自{@link DirectorySlots#data()}，不需要先读出扇区；
+ * 磁盘上相邻的扇区合并为一次写入。
+ */
+public class DirectoryWriteBatch {
+    private final IDisk disk;
+    private final DirectorySlots slots;
+
+    /**
+     * 被修改的扇区在目录中的序号
+     */
+    private final BitSet sectors = new BitSet();
+
+    public DirectoryWriteBatch(IDisk disk, DirectorySlots slots) {
+        this.disk = disk;
+        this.slots = slots;
+    }
+
+    public DirectorySlots getSlots() {
+        return slots;
+    }
+
+    /**
+     * 记录修改的目录项，目录项须已通过{@link DirectorySlots#store}写入内存数据
+     */
+    public void add(int slot) {
+        sectors.set(slot / DirectorySlots.SLOTS_PER_SECTOR);
+    }
+
+    public boolean isEmpty() {
+        return sectors.isEmpty();
+    }
+
+    /**
+     * 写入全部被修改的扇区
+     */
+    public void flush() {
+        byte[] data = slots.data();
+        int i = sectors.nextSetBit(0);
+        while (i >= 0) {
+            // 目录中连续且磁盘上也连续的扇区一次写入
+            int count = 1;
+            while (sectors.get(i + count) && slots.sectorAt(i + count) == slots.sectorAt(i) + count) {
+                count++;
+            }
+
+            disk.writeSectors(slots.sectorAt(i), count,
+                    ByteBuffer.wrap(data, i * Layout.PER_SECTOR_SIZE, count * Layout.PER_SECTOR_SIZE));
+            i = sectors.nextSetBit(i + count);
+        }
+        sectors.clear();
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+/**
+ * 一段连续的区间：[start, start + length)
+ */
+public class Extent {
+    public final int start;
+    public final int length;
+
+    public Extent(int start, int length) {
+        this.start = start;
+        this.length = length;
+    }
+
+    public int end() {
+        return start + length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d, %d)", start, end());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 以起始簇为键缓存最近使用的簇链映射{@link ExtentMap}，按LRU淘汰。
+ * <p>
+ * 所有缓存中的连续段另以起始簇登记在有序表中，因此可以O(log n)找到任一簇所属的簇链。
+ * FAT表项被修改时通过{@link #onWrite(int, int)}通知：在链表尾追加簇时直接扩展映射，其余修改使所属簇链的映射失效。
+ * 方法均已同步，可在FAT表的读锁下被多个线程同时访问。
+ */
+public class ExtentCache {
+
+    /**
+     * 默认缓存256条簇链
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final LinkedHashMap<Integer, ExtentMap> maps = new LinkedHashMap<>(16, 0.75f, true);
+    private final TreeMap<Integer, Run> runs = new TreeMap<>();
+
+    public ExtentCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ExtentCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return 缓存的簇链映射，不存在时返回null
+     */
+    public synchronized ExtentMap get(int clusterIdx) {
+        return maps.get(clusterIdx);
+    }
+
+    public synchronized void put(ExtentMap map) {
+        invalidate(maps.get(map.firstCluster()));
+        maps.put(map.firstCluster(), map);
+        for (int i = 0; i < map.runCount(); i++) {
+            runs.put(map.run(i).start, new Run(map, i));
+        }
+
+        if (maps.size() > capacity) {
+            Iterator<ExtentMap> it = maps.values().iterator();
+            ExtentMap eldest = it.next();
+            it.remove();
+            removeRuns(eldest);
+        }
+    }
+
+    /**
+     * FAT表项被修改后调用
+     *
+     * @param clusterIdx 被修改的簇
+     * @param value 新的值
+     * @param endOfChain 簇链结束标记
+     */
+    public synchronized void onWrite(int clusterIdx, int value, int endOfChain) {
+        ExtentMap map = owner(clusterIdx);
+        if (map == null) {
+            return;
+        }
+
+        if (clusterIdx == map.lastCluster()) {
+            if (value == endOfChain) {
+                return;
+            }
+            if (value >= Layout.HEAD_CLUSTER_COUNT && value < endOfChain && owner(value) == null) {
+                int count = map.runCount();
+                map.append(value);
+                if (map.runCount() > count) {
+                    runs.put(value, new Run(map, count));
+                }
+                return;
+            }
+        }
+
+        invalidate(map);
+    }
+
+    public synchronized void clear() {
+        maps.clear();
+        runs.clear();
+    }
+
+    /**
+     * @return 包含指定簇的簇链映射，不存在时返回null
+     */
+    private ExtentMap owner(int clusterIdx) {
+        Map.Entry<Integer, Run> e = runs.floorEntry(clusterIdx);
+        if (e == null) {
+            return null;
+        }
+
+        Run run = e.getValue();
+        return clusterIdx < run.map.run(run.index).end() ? run.map : null;
+    }
+
+    private void invalidate(ExtentMap map) {
+        if (map != null) {
+            maps.remove(map.firstCluster());
+            removeRuns(map);
+        }
+    }
+
+    private void removeRuns(ExtentMap map) {
+        for (int i = 0; i < map.runCount(); i++) {
+            runs.remove(map.run(i).start);
+        }
+    }
+
+    /**
+     * 连续段所属的簇链映射及其在映射中的序号
+     */
+    private static class Run {
+        final ExtentMap map;
+        final int index;
+
+        Run(ExtentMap map, int index) {
+            this.map = map;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * 簇链的压缩表示：将簇链拆分为若干段连续的簇，并记录每段在文件中的起始簇偏移。
+ * <p>
+ * 定位第n个簇为O(log m)，m为连续段数量；获取最后一个簇和簇数量为O(1)。非线程安全，由调用方加锁。
+ */
+public class ExtentMap {
+    private int[] starts = new int[4];
+    private int[] lengths = new int[4];
+    private int[] offsets = new int[4];
+    private int runCount = 0;
+    private int clusterCount = 0;
+
+    /**
+     * 遍历簇链建立映射
+     *
+     * @param fat 文件分配表
+     * @param clusterIdx 簇链的起始簇
+     * @param endOfChain 簇链结束标记
+     */
+    public static ExtentMap build(int[] fat, int clusterIdx, int endOfChain) {
+        ExtentMap map = new ExtentMap();
+        int idx = clusterIdx;
+        while (true) {
+            map.append(idx);
+            int v = fat[idx];
+            if (v == endOfChain) {
+                break;
+            }
+            idx = v;
+        }
+        return map;
+    }
+
+    /**
+     * 在末尾追加一个簇，与最后一段相邻时直接合并
+     */
+    public void append(int clusterIdx) {
+        if (runCount > 0 && starts[runCount - 1] + lengths[runCount - 1] == clusterIdx) {
+            lengths[runCount - 1]++;
+        } else {
+            if (runCount == starts.length) {
+                int n = runCount * 2;
+                starts = Arrays.copyOf(starts, n);
+                lengths = Arrays.copyOf(lengths, n);
+                offsets = Arrays.copyOf(offsets, n);
+            }
+            starts[runCount] = clusterIdx;
+            lengths[runCount] = 1;
+            offsets[runCount] = clusterCount;
+            runCount++;
+        }
+        clusterCount++;
+    }
+
+    /**
+     * @param offset 簇在簇链中的序号，从0开始
+     * @return 对应的簇索引，超出簇链长度时返回-1
+     */
+    public int clusterAt(int offset) {
+        if (offset < 0 || offset >= clusterCount) {
+            return -1;
+        }
+
+        int lo = 0, hi = runCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return starts[lo] + offset - offsets[lo];
+    }
+
+    public int firstCluster() {
+        return starts[0];
+    }
+
+    public int lastCluster() {
+        return starts[runCount - 1] + lengths[runCount - 1] - 1;
+    }
+
+    public int clusterCount() {
+        return clusterCount;
+    }
+
+    public int runCount() {
+        return runCount;
+    }
+
+    /**
+     * 从第offset个簇开始，按簇链顺序逐个处理簇，遍历时不分配内存
+     */
+    public void forEach(int offset, IntConsumer action) {
+        for (int i = 0; i < runCount; i++) {
+            int skip = Math.max(0, offset - offsets[i]);
+            for (int c = starts[i] + skip, end = starts[i] + lengths[i]; c < end; c++) {
+                action.accept(c);
+            }
+        }
+    }
+
+    /**
+     * @return 第i段连续的簇
+     */
+    public Extent run(int i) {
+        return new Extent(starts[i], lengths[i]);
+    }
+}
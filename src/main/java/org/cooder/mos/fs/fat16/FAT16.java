@@ -8,24 +8,48 @@
  */
 package org.cooder.mos.fs.fat16;
 
+import org.cooder.mos.device.CachedDisk;
 import org.cooder.mos.device.IDisk;
 import org.cooder.mos.fs.fat16.Layout.DirectoryEntry;
 
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
 
 public class FAT16 implements IFAT16 {
     public static final int FAT_SIZE = Layout.SECTORS_PER_FAT * Layout.PER_SECTOR_SIZE / 2;
+    private static final int ENTRIES_PER_SECTOR = Layout.PER_SECTOR_SIZE / 2;
 
     public static final int FREE_CLUSTER = 0x0000;
     public static final int END_OF_CHAIN = 0xFFF8;
 
     public final IDisk disk;
     public final int[] table = new int[FAT_SIZE];
+    private final BitSet dirtySectors = new BitSet(Layout.SECTORS_PER_FAT);
+    private final FreeExtentIndex freeClusters = new FreeExtentIndex(FAT_SIZE);
+    private final ExtentCache extents = new ExtentCache();
+    private final TreeMemoryManager memory = new TreeMemoryManager(this);
+    /**
+     * FAT表的读写锁：读簇使用乐观读，遍历簇链持读锁，修改持写锁
+     */
+    private final StampedLock lock = new StampedLock();
+    private final Object flushLock = new Object();
+    /**
+     * 目录树锁：展开、折叠、查找和修改目录项都持有该锁，折叠不会清空正在被使用的目录项。
+     * 加锁顺序为目录树锁、内存管理器、FAT表锁
+     */
+    private final ReentrantLock treeLock = new ReentrantLock();
     public DirectoryTreeNode root = new DirectoryTreeNode(null, null);
 
+    /**
+     * 遍历簇链时使用的处理函数，复用以避免每次遍历创建对象
+     */
+    private final IntConsumer freeCluster = c -> setCluster(c, FREE_CLUSTER);
+    private final IntConsumer unpinCluster = this::unpinCluster;
+
     public FAT16(IDisk disk) {
         this.disk = disk;
         reload();
@@ -41,102 +65,214 @@ public class FAT16 implements IFAT16 {
     }
 
     @Override
-    public synchronized int nextFreeCluster(int preCluster) {
-        for (int i = Layout.HEAD_CLUSTER_COUNT; i < FAT_SIZE; i++) {
-            if (table[i] == 0) {
-                writeCluster(i, getEndOfChain());
-                writeCluster(preCluster, i);
-                return i;
+    public int nextFreeCluster(int preCluster) {
+        long stamp = lock.writeLock();
+        try {
+            // 优先紧接在链表尾之后分配，保持簇链连续
+            int i = preCluster >= 0 && preCluster + 1 < FAT_SIZE && freeClusters.isFree(preCluster + 1)
+                    ? preCluster + 1 : freeClusters.first();
+            if (i < 0) {
+                return -1;
+            }
+
+            setCluster(i, getEndOfChain());
+            if (preCluster >= 0) {
+                setCluster(preCluster, i);
             }
+            return i;
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        return -1;
     }
 
     @Override
-    public synchronized void markFreeFrom(int clusterIdx) {
-        int idx = clusterIdx;
-        int v = table[idx];
-        while (v != getEndOfChain()) {
-            table[idx] = FREE_CLUSTER;
-            idx = v;
-            v = table[idx];
+    public void markFreeFrom(int clusterIdx) {
+        long stamp = lock.writeLock();
+        try {
+            int next = table[clusterIdx];
+            if (next != getEndOfChain() && next >= Layout.HEAD_CLUSTER_COUNT) {
+                // 释放簇时映射从缓存中失效，但其内容不变，可继续遍历
+                extentMap(clusterIdx).forEach(1, freeCluster);
+            }
+            setCluster(clusterIdx, getEndOfChain());
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
-    public synchronized int lastClusterFrom(int clusterIdx) {
-        if (clusterIdx < Layout.HEAD_CLUSTER_COUNT) {
-            throw new IllegalStateException();
+    public int freeClusterCount() {
+        long stamp = lock.readLock();
+        try {
+            return freeClusters.freeCount();
+        } finally {
+            lock.unlockRead(stamp);
         }
+    }
 
-        int idx = clusterIdx;
-        int v = table[idx];
-        while (v != getEndOfChain()) {
-            idx = v;
-            v = table[idx];
+    @Override
+    public Extent reserveExtent(int preCluster, int count) {
+        long stamp = lock.writeLock();
+        try {
+            Extent extent = freeClusters.findRun(count, preCluster + 1);
+            if (extent != null) {
+                freeClusters.markUsed(extent.start, extent.length);
+            }
+            return extent;
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        return idx;
     }
 
     @Override
-    public synchronized int clusterCountFrom(int clusterIdx) {
-        if (clusterIdx < Layout.HEAD_CLUSTER_COUNT) {
-            throw new IllegalStateException();
+    public void releaseExtent(Extent extent) {
+        long stamp = lock.writeLock();
+        try {
+            for (int i = extent.start; i < extent.end(); i++) {
+                if (table[i] == FREE_CLUSTER) {
+                    freeClusters.markFree(i);
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
         }
+    }
 
-        int idx = clusterIdx;
-        int v = table[idx], count = 1;
-        while (v != getEndOfChain()) {
-            idx = v;
-            v = table[idx];
-            count++;
+    @Override
+    public void appendCluster(int preCluster, int clusterIdx) {
+        long stamp = lock.writeLock();
+        try {
+            setCluster(clusterIdx, getEndOfChain());
+            setCluster(preCluster, clusterIdx);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int extendChain(int clusterIdx, int count) {
+        long stamp = lock.writeLock();
+        try {
+            int last = extentMap(clusterIdx).lastCluster();
+            int allocated = 0;
+            while (allocated < count) {
+                Extent extent = freeClusters.findRun(count - allocated, last + 1);
+                if (extent == null) {
+                    break;
+                }
+                for (int i = extent.start; i < extent.end(); i++) {
+                    setCluster(i, getEndOfChain());
+                    setCluster(last, i);
+                    last = i;
+                }
+                allocated += extent.length;
+            }
+            return allocated;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int lastClusterFrom(int clusterIdx) {
+        long stamp = lock.readLock();
+        try {
+            return extentMap(clusterIdx).lastCluster();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int clusterCountFrom(int clusterIdx) {
+        long stamp = lock.readLock();
+        try {
+            return extentMap(clusterIdx).clusterCount();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int clusterAt(int clusterIdx, int offset) {
+        long stamp = lock.readLock();
+        try {
+            return extentMap(clusterIdx).clusterAt(offset);
+        } finally {
+            lock.unlockRead(stamp);
         }
-        return count;
     }
 
     @Override
     public int[] clusterFrom(int clusterIdx) {
-        if (clusterIdx < Layout.HEAD_CLUSTER_COUNT) {
-            throw new IllegalStateException();
+        long stamp = lock.readLock();
+        try {
+            ExtentMap map = extentMap(clusterIdx);
+            int[] clusters = new int[map.clusterCount()];
+            int[] n = { 0 };
+            map.forEach(0, c -> clusters[n[0]++] = c);
+            return clusters;
+        } finally {
+            lock.unlockRead(stamp);
         }
+    }
 
-        int[] tmp = new int[table.length];
-        tmp[0] = clusterIdx;
-        int idx = clusterIdx;
-        int v = table[idx], tmpIdx = 1;
-        while (v != getEndOfChain()) {
-            tmp[tmpIdx] = v;
-            idx = v;
-            v = table[idx];
-            tmpIdx++;
+    @Override
+    public IntList clusterFrom(int clusterIdx, IntList clusters) {
+        long stamp = lock.readLock();
+        try {
+            return walk(clusterIdx, clusters);
+        } finally {
+            lock.unlockRead(stamp);
         }
+    }
 
-        int[] res = new int[tmpIdx];
-        System.arraycopy(tmp, 0, res, 0, tmpIdx);
-        return res;
+    @Override
+    public void forEachCluster(int clusterIdx, IntConsumer action) {
+        long stamp = lock.readLock();
+        try {
+            extentMap(clusterIdx).forEach(0, action);
+        } finally {
+            lock.unlockRead(stamp);
+        }
     }
 
     @Override
-    public synchronized int readCluster(int clusterIdx) {
-        return table[clusterIdx];
+    public int readCluster(int clusterIdx) {
+        // 乐观读：期间没有写操作时无需加锁
+        long stamp = lock.tryOptimisticRead();
+        int value = table[clusterIdx];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = table[clusterIdx];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
     }
 
     @Override
-    public synchronized void writeCluster(int clusterIdx, int valueToWrite) {
+    public void writeCluster(int clusterIdx, int valueToWrite) {
         if (clusterIdx < 0) {
             return;
         }
 
-        table[clusterIdx] = valueToWrite;
-        flush(); // TODO
+        long stamp = lock.writeLock();
+        try {
+            setCluster(clusterIdx, valueToWrite);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
-    public synchronized void loadFAT() {
+    /**
+     * 从磁盘读取FAT表并重建空闲簇索引，调用方须持有写锁
+     */
+    private void loadFAT() {
         ByteBuffer buffer = ByteBuffer.allocate(Layout.SECTORS_PER_FAT * Layout.PER_SECTOR_SIZE);
-        for (int i = 0; i < Layout.SECTORS_PER_FAT; i++) {
-            byte[] data = disk.readSector(i + Layout.FAT_REGION_START);
-            buffer.put(data);
-        }
+        disk.readSectors(Layout.FAT_REGION_START, Layout.SECTORS_PER_FAT, buffer);
 
         buffer.rewind();
         ShortBuffer sb = buffer.asShortBuffer();
@@ -144,27 +280,142 @@ public class FAT16 implements IFAT16 {
             short value = sb.get();
             table[i] = value & 0xFFFF;
         }
+        dirtySectors.clear();
+        extents.clear();
+
+        // 根据FAT表重建空闲簇索引
+        freeClusters.reset();
+        int start = -1;
+        for (int i = Layout.HEAD_CLUSTER_COUNT; i <= FAT_SIZE; i++) {
+            boolean free = i < FAT_SIZE && table[i] == FREE_CLUSTER;
+            if (free && start < 0) {
+                start = i;
+            } else if (!free && start >= 0) {
+                freeClusters.markFree(start, i - start);
+                start = -1;
+            }
+        }
     }
 
-    public synchronized void reload() {
-        loadFAT();
-        loadSubEntries(root);
+    /**
+     * 重新读取FAT表和根目录，丢弃内存中的状态
+     */
+    public void reload() {
+        // 先等进行中的刷新写完，避免旧的FAT扇区在重新读取之后才落盘；
+        // 重建期间持写锁，乐观读和其他读写都会等待或重试
+        treeLock.lock();
+        try {
+            synchronized (flushLock) {
+                long stamp = lock.writeLock();
+                try {
+                    loadFAT();
+                    memory.clear();
+                    loadSubEntries(root);
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+        } finally {
+            treeLock.unlock();
+        }
     }
 
-    public synchronized void flush() {
-        ByteBuffer buffer = ByteBuffer.allocate(Layout.SECTORS_PER_FAT * Layout.PER_SECTOR_SIZE);
-        for (int i = 0; i < FAT_SIZE; i++) {
-            short value = (short) (table[i] & 0xFFFF);
-            buffer.putShort(value);
+    @Override
+    public void flush() {
+        // 刷新之间互斥，保证先编码的数据不会覆盖后编码的数据
+        synchronized (flushLock) {
+            BitSet sectors;
+            ByteBuffer buffer;
+            int first;
+            long stamp = lock.writeLock();
+            try {
+                if (dirtySectors.isEmpty()) {
+                    return;
+                }
+
+                // 持锁期间只做编码，磁盘写入在锁外进行，不阻塞读簇
+                sectors = (BitSet) dirtySectors.clone();
+                dirtySectors.clear();
+                first = sectors.nextSetBit(0);
+                buffer = ByteBuffer.allocate((sectors.length() - first) * Layout.PER_SECTOR_SIZE);
+                for (int s = first; s >= 0; s = sectors.nextSetBit(s + 1)) {
+                    buffer.position((s - first) * Layout.PER_SECTOR_SIZE);
+                    for (int i = s * ENTRIES_PER_SECTOR; i < (s + 1) * ENTRIES_PER_SECTOR; i++) {
+                        buffer.putShort((short) (table[i] & 0xFFFF));
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+
+            int start = first;
+            while (start >= 0) {
+                // 连续的脏扇区合并为一次写入
+                int end = sectors.nextClearBit(start);
+                ByteBuffer run = buffer.duplicate();
+                run.limit((end - first) * Layout.PER_SECTOR_SIZE);
+                run.position((start - first) * Layout.PER_SECTOR_SIZE);
+                disk.writeSectors(Layout.FAT_REGION_START + start, end - start, run);
+                start = sectors.nextSetBit(end);
+            }
         }
+    }
 
-        buffer.rewind();
-        byte[] sectorData = new byte[Layout.PER_SECTOR_SIZE];
-        for (int i = 0; i < Layout.SECTORS_PER_FAT; i++) {
-            int sectorIdx = i + Layout.FAT_REGION_START;
-            buffer.get(sectorData);
-            disk.writeSector(sectorIdx, sectorData);
+    /**
+     * 遍历簇链，调用方须持有锁
+     */
+    private IntList walk(int clusterIdx, IntList clusters) {
+        if (clusterIdx < Layout.HEAD_CLUSTER_COUNT) {
+            throw new IllegalStateException();
+        }
+
+        clusters.clear();
+        int idx = clusterIdx;
+        while (true) {
+            clusters.add(idx);
+            int v = table[idx];
+            if (v == getEndOfChain()) {
+                break;
+            }
+            idx = v;
         }
+        return clusters;
+    }
+
+    /**
+     * 获取簇链映射，未缓存时遍历簇链建立，调用方须持有锁
+     */
+    private ExtentMap extentMap(int clusterIdx) {
+        if (clusterIdx < Layout.HEAD_CLUSTER_COUNT) {
+            throw new IllegalStateException();
+        }
+
+        ExtentMap map = extents.get(clusterIdx);
+        if (map == null) {
+            map = ExtentMap.build(table, clusterIdx, getEndOfChain());
+            extents.put(map);
+        }
+        return map;
+    }
+
+    /**
+     * 修改FAT表项，同时维护脏扇区、空闲簇索引和簇链映射缓存，调用方须持有写锁
+     */
+    private void setCluster(int clusterIdx, int value) {
+        table[clusterIdx] = value;
+        markDirty(clusterIdx);
+        extents.onWrite(clusterIdx, value, getEndOfChain());
+        if (clusterIdx >= Layout.HEAD_CLUSTER_COUNT) {
+            if (value == FREE_CLUSTER) {
+                freeClusters.markFree(clusterIdx);
+            } else {
+                freeClusters.markUsed(clusterIdx);
+            }
+        }
+    }
+
+    private void markDirty(int clusterIdx) {
+        dirtySectors.set(clusterIdx / ENTRIES_PER_SECTOR);
     }
 
     //
@@ -173,129 +424,305 @@ public class FAT16 implements IFAT16 {
 
     @Override
     public void writeDirectoryTreeNode(DirectoryTreeNode node) {
-        byte[] entryData = node.getEntry().toBytes();
-        byte[] sectorData = disk.readSector(node.getSectorIdx());
-        System.arraycopy(entryData, 0, sectorData, node.getSectorOffset(), entryData.length);
+        writeDirectoryTreeNodes(node);
+    }
 
-        disk.writeSector(node.getSectorIdx(), sectorData);
+    /**
+     * 持久化多个目录项，同一目录中的目录项按扇区合并写入
+     */
+    protected void writeDirectoryTreeNodes(DirectoryTreeNode... nodes) {
+        treeLock.lock();
+        try {
+            DirectoryWriteBatch batch = null;
+            for (DirectoryTreeNode node : nodes) {
+                DirectorySlots slots = node.parent == null ? null : node.parent.getSlots();
+                if (slots == null || node.getSlot() < 0) {
+                    // 父目录已折叠，读出扇区后修改
+                    byte[] sectorData = disk.readSector(node.getSectorIdx());
+                    node.getEntry().writeTo(sectorData, node.getSectorOffset());
+                    disk.writeSector(node.getSectorIdx(), sectorData);
+                    continue;
+                }
+
+                if (batch != null && batch.getSlots() != slots) {
+                    batch.flush();
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new DirectoryWriteBatch(disk, slots);
+                }
+                node.store();
+                batch.add(node.getSlot());
+            }
+
+            if (batch != null) {
+                batch.flush();
+            }
+        } finally {
+            treeLock.unlock();
+        }
     }
 
     @Override
     public void removeTreeNode(DirectoryTreeNode node) {
-        if (node == null || node == root) {
-            return;
-        }
+        treeLock.lock();
+        try {
+            if (node == null || node == root) {
+                return;
+            }
 
-        int clusterIdx = node.getEntry().startingCluster;
-        node.reset();
-        writeCluster(clusterIdx, FREE_CLUSTER);
-        writeDirectoryTreeNode(node);
+            int clusterIdx = node.getEntry().startingCluster & 0xFFFF;
+            if (node.isDir()) {
+                releaseDirectoryClusters(clusterIdx);
+            }
+            node.reset();
+            writeCluster(clusterIdx, FREE_CLUSTER);
+            writeDirectoryTreeNode(node);
+        } finally {
+            treeLock.unlock();
+        }
     }
 
     @Override
     public DirectoryTreeNode findSubTreeNode(DirectoryTreeNode parent, String name) {
-        if (parent == null) {
-            parent = root;
-        }
+        treeLock.lock();
+        try {
+            if (parent == null) {
+                parent = root;
+            }
 
-        if (!parent.isDir()) {
-            throw new IllegalArgumentException(name + ": not directory");
-        }
+            if (!parent.isDir()) {
+                throw new IllegalArgumentException(name + ": not directory");
+            }
 
-        if (parent.isFold()) {
-            loadSubEntries(parent);
-        }
+            if (parent.isFold()) {
+                loadSubEntries(parent);
+            } else {
+                memory.touch(parent);
+            }
 
-        return parent.find(name);
+            return parent.find(name);
+        } finally {
+            treeLock.unlock();
+        }
     }
 
     public boolean isEmpty(DirectoryTreeNode parent) {
-        if (parent == null) {
-            parent = root;
-        }
+        treeLock.lock();
+        try {
+            if (parent == null) {
+                parent = root;
+            }
 
-        if (!parent.isDir()) {
-            throw new IllegalArgumentException(parent.getName() + ": not directory");
-        }
+            if (!parent.isDir()) {
+                throw new IllegalArgumentException(parent.getName() + ": not directory");
+            }
 
-        if (parent.isFold()) {
-            loadSubEntries(parent);
-        }
+            if (parent.isFold()) {
+                loadSubEntries(parent);
+            } else {
+                memory.touch(parent);
+            }
 
-        return parent.firstTreeNode() == null;
+            return parent.firstTreeNode() == null;
+        } finally {
+            treeLock.unlock();
+        }
     }
 
     @Override
     public DirectoryTreeNode createTreeNode(DirectoryTreeNode parent, String name, boolean isDir) {
-        if (parent == null) {
-            parent = root;
-        }
+        treeLock.lock();
+        try {
+            if (parent == null) {
+                parent = root;
+            }
 
-        if (parent.isFold()) {
-            loadSubEntries(parent);
-        }
+            if (parent.isFold()) {
+                loadSubEntries(parent);
+            } else {
+                memory.touch(parent);
+            }
 
-        DirectoryTreeNode node = parent.find(name);
-        if (node != null) {
-            throw new IllegalStateException("file exist.");
-        }
+            DirectoryTreeNode node = parent.find(name);
+            if (node != null) {
+                throw new IllegalStateException("file exist.");
+            }
 
-        node = parent.create(name, isDir);
+            int clusterIdx = nextFreeCluster(-1);
+            if (clusterIdx < 0) {
+                throw new IllegalStateException("low disk space");
+            }
 
-        // update
-        DirectoryEntry entry = node.getEntry();
-        entry.startingCluster = (short) (nextFreeCluster(-1) & 0xFFFF);
-        writeDirectoryTreeNode(node);
+            try {
+                node = parent.create(name, isDir);
+                if (node == null) {
+                    growDirectory(parent);
+                    node = parent.create(name, isDir);
+                }
+            } catch (RuntimeException e) {
+                writeCluster(clusterIdx, FREE_CLUSTER);
+                throw e;
+            }
+
+            // update
+            DirectoryEntry entry = node.getEntry();
+            entry.startingCluster = (short) (clusterIdx & 0xFFFF);
+            if (isDir) {
+                // 簇中可能残留已删除文件的数据，新目录必须从空目录项开始
+                zeroCluster(clusterIdx);
+            }
+            // FAT先于目录项落盘，目录项不会引用磁盘上仍为空闲的簇
+            flush();
+            writeDirectoryTreeNode(node);
 
-        return node;
+            return node;
+        } finally {
+            treeLock.unlock();
+        }
     }
 
     public void loadEntries(DirectoryTreeNode parent) {
-        if (parent.isDir() && parent.isFold()) {
-            loadSubEntries(parent);
+        treeLock.lock();
+        try {
+            if (!parent.isDir()) {
+                return;
+            }
+
+            if (parent.isFold()) {
+                loadSubEntries(parent);
+            } else {
+                memory.touch(parent);
+            }
+        } finally {
+            treeLock.unlock();
         }
     }
 
-    private void loadSubEntries(DirectoryTreeNode parent) {
-        int sectorIdx, limit;
-        List<DirectoryTreeNode> children = new ArrayList<>();
-        // 读取根目录项
+    /**
+     * 读取目录的全部目录项数据并展开目录，目录项节点在访问时才创建
+     */
+    protected void loadSubEntries(DirectoryTreeNode parent) {
+        byte[] data;
+        int[] sectors;
         if (parent == root) {
-            sectorIdx = Layout.ROOT_DIRECTORY_REGION_START;
-            limit = Layout.ROOT_DIRECTORY_REGION_SIZE;
-
-            children = loadEntries(parent, sectorIdx, limit);
+            // 读取根目录项
+            int count = Layout.ROOT_DIRECTORY_REGION_SIZE;
+            data = new byte[count * Layout.PER_SECTOR_SIZE];
+            disk.readSectors(Layout.ROOT_DIRECTORY_REGION_START, count, ByteBuffer.wrap(data));
+
+            sectors = new int[count];
+            for (int i = 0; i < count; i++) {
+                sectors[i] = Layout.ROOT_DIRECTORY_REGION_START + i;
+            }
         } else {
             // 读取簇中目录项
-            int[] clusters = clusterFrom(parent.getEntry().startingCluster);
-            for (int cluster : clusters) {
-                sectorIdx = Layout.getClusterDataStartSector(cluster);
-                limit = Layout.SECTORS_PER_CLUSTER;
+            // 目录的簇链只在持有目录树锁时修改，计数与遍历之间不会变化
+            int startCluster = parent.getEntry().startingCluster & 0xFFFF;
+            int count = clusterCountFrom(startCluster);
+            data = new byte[count * Layout.PER_CLUSTER_SIZE];
+            int[] clusterSectors = new int[count * Layout.SECTORS_PER_CLUSTER];
+            int[] n = { 0 };
+            forEachCluster(startCluster, cluster -> {
+                pinCluster(cluster);
+                int sectorIdx = Layout.getClusterDataStartSector(cluster);
+                for (int i = 0; i < Layout.SECTORS_PER_CLUSTER; i++) {
+                    clusterSectors[n[0]++] = sectorIdx + i;
+                }
+            });
+
+            // 磁盘读取不持有FAT表锁
+            for (int k = 0; k < count; k++) {
+                disk.readSectors(clusterSectors[k * Layout.SECTORS_PER_CLUSTER], Layout.SECTORS_PER_CLUSTER,
+                        ByteBuffer.wrap(data, k * Layout.PER_CLUSTER_SIZE, Layout.PER_CLUSTER_SIZE));
+            }
+            sectors = clusterSectors;
+        }
 
-                children.addAll(loadEntries(parent, sectorIdx, limit));
+        parent.unfold(new DirectorySlots(parent, data, sectors));
+        memory.unfolded(parent);
+    }
+
+    /**
+     * 折叠目录，丢弃内存中的目录项，下次访问时重新从磁盘读取
+     */
+    protected void foldTreeNode(DirectoryTreeNode dir) {
+        treeLock.lock();
+        try {
+            if (dir == root || dir.isFold()) {
+                return;
             }
+
+            forEachCluster(dir.getEntry().startingCluster & 0xFFFF, unpinCluster);
+            dir.fold();
+        } finally {
+            treeLock.unlock();
+        }
+    }
+
+    public TreeMemoryManager getTreeMemory() {
+        return memory;
+    }
+
+    /**
+     * @return 目录树锁，查找节点后需要固定节点或访问其目录项时，整个过程须持有该锁
+     */
+    public ReentrantLock getTreeLock() {
+        return treeLock;
+    }
+
+    /**
+     * 目录没有空闲目录项时，在簇链末尾追加一个清零的簇，并扩展已展开的目录项
+     */
+    protected void growDirectory(DirectoryTreeNode dir) {
+        if (dir == root) {
+            throw new IllegalStateException("root directory is full.");
+        }
+
+        int last = lastClusterFrom(dir.getEntry().startingCluster & 0xFFFF);
+        int clusterIdx = nextFreeCluster(last);
+        if (clusterIdx < 0) {
+            throw new IllegalStateException("low disk space");
+        }
+        // 簇先清零，FAT落盘后目录的簇链不会指向残留数据
+        zeroCluster(clusterIdx);
+        flush();
+
+        pinCluster(clusterIdx);
+        int sectorIdx = Layout.getClusterDataStartSector(clusterIdx);
+        int[] sectors = new int[Layout.SECTORS_PER_CLUSTER];
+        for (int i = 0; i < sectors.length; i++) {
+            sectors[i] = sectorIdx + i;
         }
+        dir.getSlots().grow(sectors);
+    }
 
-        parent.setChildren(children.toArray(new DirectoryTreeNode[children.size()]));
-        parent.unfold();
+    protected void zeroCluster(int clusterIdx) {
+        disk.writeSectors(Layout.getClusterDataStartSector(clusterIdx), Layout.SECTORS_PER_CLUSTER,
+                ByteBuffer.allocate(Layout.PER_CLUSTER_SIZE));
     }
 
-    private List<DirectoryTreeNode> loadEntries(DirectoryTreeNode parent, int sectorIdx, int limitSectorCount) {
-        List<DirectoryTreeNode> nodes = new ArrayList<>(limitSectorCount);
-        byte[] buffer = new byte[Layout.PER_DIRECTOR_ENTRY_SIZE];
-        for (int i = 0; i < limitSectorCount; i++) {
-            byte[] sectorData = disk.readSector(sectorIdx + i);
-            for (int j = 0; j < sectorData.length; j += Layout.PER_DIRECTOR_ENTRY_SIZE) {
-                System.arraycopy(sectorData, j, buffer, 0, Layout.PER_DIRECTOR_ENTRY_SIZE);
-                DirectoryEntry entry = DirectoryEntry.from(buffer);
+    /**
+     * 释放目录的整条簇链，首簇由调用方释放
+     */
+    protected void releaseDirectoryClusters(int clusterIdx) {
+        forEachCluster(clusterIdx, unpinCluster);
+        markFreeFrom(clusterIdx);
+    }
 
-                DirectoryTreeNode node = new DirectoryTreeNode(parent, entry);
-                node.setSectorIdx(sectorIdx + i);
-                node.setSectorOffset(j);
-                nodes.add(node);
-            }
+    /**
+     * 磁盘带缓存时，将目录所在的簇设为常驻
+     */
+    protected void pinCluster(int clusterIdx) {
+        if (disk instanceof CachedDisk) {
+            ((CachedDisk) disk).pin(Layout.getClusterDataStartSector(clusterIdx), Layout.SECTORS_PER_CLUSTER);
+        }
+    }
+
+    protected void unpinCluster(int clusterIdx) {
+        if (disk instanceof CachedDisk) {
+            ((CachedDisk) disk).unpin(Layout.getClusterDataStartSector(clusterIdx), Layout.SECTORS_PER_CLUSTER);
         }
-        return nodes;
     }
 
     //
@@ -304,11 +731,8 @@ public class FAT16 implements IFAT16 {
     @Override
     public void format() {
         // fill disk with zero
-        byte[] zeros = new byte[Layout.PER_SECTOR_SIZE];
         int count = Layout.DATA_REGION_START;
-        for (int i = 0; i < count; i++) {
-            disk.writeSector(i, zeros);
-        }
+        disk.writeSectors(0, count, ByteBuffer.allocate(count * Layout.PER_SECTOR_SIZE));
 
         // write boot sector
         disk.writeSector(0, new Layout.BootSector().toBytes());
@@ -317,7 +741,7 @@ public class FAT16 implements IFAT16 {
     }
 
     @Override
-    public synchronized void close() {
+    public void close() {
         flush();
     }
 }
@@ -10,12 +10,14 @@ package org.cooder.mos.fs.fat16;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import org.cooder.mos.device.IDisk;
 
 public class FatFileInputStream extends InputStream {
-    private final byte[] buffer = new byte[Layout.PER_SECTOR_SIZE];
+    private final byte[] buffer = new byte[Layout.PER_CLUSTER_SIZE];
     private int pos = 0;
+    private int end = 0;
     private int limit = -1;
     private int count = 0;
     private int currentClusterIdx;
@@ -29,8 +31,6 @@ public class FatFileInputStream extends InputStream {
         this.currentSectorIdx = sectorIdx;
         this.limit = limit;
         this.fat = fat;
-        
-        disk.readSector(currentSectorIdx, buffer);
     }
 
     @Override
@@ -39,14 +39,44 @@ public class FatFileInputStream extends InputStream {
             return -1;
         }
 
-        if (pos >= buffer.length) {
-            if (!readNextSector()) {
+        if (pos >= end) {
+            if (!readNextSectors()) {
                 return -1;
             }
         }
 
         count++;
-        return buffer[pos++];
+        return buffer[pos++] & 0xFF;
+    }
+
+    /**
+     * 批量读取：先取缓冲区中剩余的数据，整扇区部分直接读入b，簇链连续时跨簇一次读取，不足一个扇区的部分经缓冲区读取
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (count >= limit) {
+            return -1;
+        }
+
+        len = Math.min(len, limit - count);
+        int n = copyBuffered(b, off, len);
+
+        while (len - n >= Layout.PER_SECTOR_SIZE && nextCluster()) {
+            int sectors = readDirect(b, off + n, (len - n) / Layout.PER_SECTOR_SIZE);
+            n += sectors * Layout.PER_SECTOR_SIZE;
+            count += sectors * Layout.PER_SECTOR_SIZE;
+        }
+
+        if (n < len && readNextSectors()) {
+            n += copyBuffered(b, off + n, len - n);
+        }
+        return n == 0 ? -1 : n;
     }
 
     public void close() {
@@ -57,30 +87,75 @@ public class FatFileInputStream extends InputStream {
         return count;
     }
 
-    private boolean readNextSector() {
-        int next = nextSector();
-        if (next < 0) {
+    /**
+     * 一次读取当前簇内剩余的扇区，读取量不超过文件剩余的数据
+     */
+    private boolean readNextSectors() {
+        if (!nextCluster()) {
             return false;
         }
-        
-        currentSectorIdx = next;
-        disk.readSector(currentSectorIdx, buffer);
+
+        int remainingBytes = limit - count;
+        int wanted = (remainingBytes + Layout.PER_SECTOR_SIZE - 1) / Layout.PER_SECTOR_SIZE;
+        int sectors = Math.min(wanted, lastSectorIdx(currentClusterIdx) - currentSectorIdx + 1);
+
+        disk.readSectors(currentSectorIdx, sectors, ByteBuffer.wrap(buffer, 0, sectors * Layout.PER_SECTOR_SIZE));
+        currentSectorIdx += sectors;
         pos = 0;
+        end = sectors * Layout.PER_SECTOR_SIZE;
         return true;
     }
 
-    private int nextSector() {
-        int next = -1;
-        if (currentSectorIdx == lastSectorIdx(currentClusterIdx)) {
-            if (currentClusterIdx == fat.getEndOfChain()) {
-                return -1;
+    /**
+     * 当前簇已读完时移动到下一个簇
+     *
+     * @return 是否还有可读的簇
+     */
+    private boolean nextCluster() {
+        if (currentSectorIdx > lastSectorIdx(currentClusterIdx)) {
+            int next = fat.readCluster(currentClusterIdx);
+            if (next == fat.getEndOfChain()) {
+                return false;
+            }
+            currentClusterIdx = next;
+            currentSectorIdx = firstSectorIdx(currentClusterIdx);
+        }
+        return true;
+    }
+
+    private int copyBuffered(byte[] b, int off, int len) {
+        int n = Math.min(len, end - pos);
+        if (n <= 0) {
+            return 0;
+        }
+        System.arraycopy(buffer, pos, b, off, n);
+        pos += n;
+        count += n;
+        return n;
+    }
+
+    /**
+     * 从当前扇区起直接读取至多wanted个扇区到b，后续簇在磁盘上连续时合并读取
+     *
+     * @return 读取的扇区数
+     */
+    private int readDirect(byte[] b, int off, int wanted) {
+        int startSectorIdx = currentSectorIdx;
+        int available = lastSectorIdx(currentClusterIdx) - currentSectorIdx + 1;
+        int sectors = Math.min(wanted, available);
+        while (sectors < wanted && sectors == available) {
+            int next = fat.readCluster(currentClusterIdx);
+            if (next != currentClusterIdx + 1) {
+                break;
             }
-            currentClusterIdx = fat.readCluster(currentClusterIdx);
-            next = firstSectorIdx(currentClusterIdx);
-        } else {
-            next = currentSectorIdx + 1;
+            currentClusterIdx = next;
+            available += Layout.SECTORS_PER_CLUSTER;
+            sectors = Math.min(wanted, available);
         }
-        return next;
+
+        disk.readSectors(startSectorIdx, sectors, ByteBuffer.wrap(b, off, sectors * Layout.PER_SECTOR_SIZE));
+        currentSectorIdx = startSectorIdx + sectors;
+        return sectors;
     }
 
     private static int firstSectorIdx(int clusterIdx) {
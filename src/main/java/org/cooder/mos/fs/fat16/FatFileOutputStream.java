@@ -10,21 +10,41 @@ package org.cooder.mos.fs.fat16;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.cooder.mos.device.IDisk;
 
 public class FatFileOutputStream extends OutputStream {
+    /**
+     * 文件增长时每次预留的连续簇数量
+     */
+    private static final int RESERVE_CLUSTERS = 16;
+
     private final byte[] zeroBuffer = new byte[Layout.PER_SECTOR_SIZE];
     private final byte[] buffer = new byte[Layout.PER_SECTOR_SIZE];
     private int pos = 0;
     private int count = 0;
     private int markCount = 0;
+    /**
+     * 缓冲区中的扇区是否已写入磁盘，整扇区批量写入后最后一个扇区留在缓冲区中，无需再次写入
+     */
+    private boolean bufferWritten = false;
+    private boolean clusterAllocated = false;
+    private Extent reservation;
+    private int reservedNext;
     private int currentClusterIdx;
     private int currentSectorIdx;
     private final IDisk disk;
     private final IFAT16 fat;
     private final DirectoryTreeNode node;
 
+    /**
+     * 目录项同步间隔（毫秒）：0表示每次flush都写入目录项，负数表示只在close和sync时写入
+     */
+    private long metadataSyncInterval = 0;
+    private long lastMetadataSync = System.currentTimeMillis();
+    private boolean metadataDirty = false;
+
     public FatFileOutputStream(IDisk disk, IFAT16 fat, int startClusterIdx, int startSectorIdx, int pos, DirectoryTreeNode node) {
         this.disk = disk;
         this.currentClusterIdx = startClusterIdx;
@@ -44,34 +64,128 @@ public class FatFileOutputStream extends OutputStream {
         }
 
         buffer[pos++] = (byte) (b & 0xFF);
+        bufferWritten = false;
         count++;
         markCount++;
     }
+
+    /**
+     * 批量写入：先填满当前扇区，整扇区部分直接从b写入磁盘，簇连续时跨簇一次写入，剩余不足一个扇区的部分留在缓冲区
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0) {
+            if (pos >= buffer.length) {
+                // 当前扇区已满，文件大小在flush时统一更新
+                writeBuffer();
+                if (len >= Layout.PER_SECTOR_SIZE) {
+                    int n = writeSectors(b, off, len / Layout.PER_SECTOR_SIZE) * Layout.PER_SECTOR_SIZE;
+                    off += n;
+                    len -= n;
+                    // 整扇区已全部落盘，大块写入不经过flush时也按间隔更新目录项
+                    if (metadataSyncDue(System.currentTimeMillis())) {
+                        updateMetadata();
+                    }
+                    continue;
+                }
+                resetBuffer();
+            }
+
+            int n = Math.min(len, buffer.length - pos);
+            System.arraycopy(b, off, buffer, pos, n);
+            bufferWritten = false;
+            pos += n;
+            off += n;
+            len -= n;
+            count += n;
+            markCount += n;
+        }
+    }
     
     @Override
     public void flush() {
         // flush data
-        disk.writeSector(currentSectorIdx, buffer);
+        writeBuffer();
+        updateMetadata();
+    }
+
+    /**
+     * 已落盘的数据计入文件大小，到达同步间隔时写入目录项
+     */
+    private void updateMetadata() {
+        // 新分配的簇先写入FAT，再更新目录项中的文件大小
+        if (clusterAllocated) {
+            fat.flush();
+            clusterAllocated = false;
+        }
         
         // update file entry
+        long now = System.currentTimeMillis();
         int fileSize = markCount + node.getFileSize();
         node.setFileSize(fileSize);
-        node.setWriteTime(System.currentTimeMillis());
-        
-        fat.writeDirectoryTreeNode(node);
-        
+        node.setWriteTime(now);
         markCount = 0;
+        metadataDirty = true;
+
+        // 延迟写入时文件大小和修改时间只保存在内存中，磁盘上的目录项只会落后于FAT，不会引用空闲簇
+        if (metadataSyncDue(now)) {
+            syncMetadata();
+        }
+    }
+
+    private boolean metadataSyncDue(long now) {
+        return metadataSyncInterval == 0 || (metadataSyncInterval > 0 && now - lastMetadataSync >= metadataSyncInterval);
     }
     
     @Override
     public void close() {
         flush();
+        fat.flush();
+        syncMetadata();
+        releaseReservation();
+    }
+
+    /**
+     * 刷新缓冲数据、FAT和目录项，并将磁盘数据同步到存储设备
+     */
+    public void sync() {
+        flush();
+        fat.flush();
+        syncMetadata();
+        disk.sync();
+    }
+
+    public void setMetadataSyncInterval(long metadataSyncInterval) {
+        this.metadataSyncInterval = metadataSyncInterval;
+    }
+
+    /**
+     * 将内存中的文件大小和修改时间写入目录项，须在FAT落盘之后调用
+     */
+    private void syncMetadata() {
+        if (!metadataDirty) {
+            return;
+        }
+        fat.writeDirectoryTreeNode(node);
+        lastMetadataSync = System.currentTimeMillis();
+        metadataDirty = false;
     }
     
     public int getCount() {
         return count;
     }
 
+    private void writeBuffer() {
+        if (!bufferWritten) {
+            disk.writeSector(currentSectorIdx, buffer);
+            bufferWritten = true;
+        }
+    }
+
     private void resetBuffer() {
         int next = nextSector();
         if (next < 0) {
@@ -79,17 +193,80 @@ public class FatFileOutputStream extends OutputStream {
         }
         currentSectorIdx = next;
         System.arraycopy(zeroBuffer, 0, buffer, 0, buffer.length);
+        bufferWritten = false;
         pos = 0;
     }
 
+    /**
+     * 将b中的sectors个整扇区写入当前扇区之后，写入前先分配所需的簇，最后一个扇区同时留在缓冲区中
+     *
+     * @return 写入的扇区数
+     */
+    private int writeSectors(byte[] b, int off, int sectors) {
+        int written = 0;
+        while (written < sectors) {
+            int start = nextSector(sectors - written);
+            if (start < 0) {
+                throw new IllegalStateException("low disk space");
+            }
+
+            // 本簇剩余的扇区，后续簇与当前簇相邻时一并写入
+            int run = Math.min(sectors - written, lastSectorIdx(currentClusterIdx) - start + 1);
+            while (written + run < sectors && start + run - 1 == lastSectorIdx(currentClusterIdx)) {
+                int nextCluster = fat.readCluster(currentClusterIdx);
+                if (nextCluster == fat.getEndOfChain()) {
+                    nextCluster = allocateCluster(clustersFor(sectors - written - run));
+                    if (nextCluster < 0) {
+                        break;
+                    }
+                    clusterAllocated = true;
+                }
+                if (nextCluster != currentClusterIdx + 1) {
+                    // 不相邻的簇已在簇链上，下一轮从它开始
+                    break;
+                }
+                currentClusterIdx = nextCluster;
+                run += Math.min(sectors - written - run, Layout.SECTORS_PER_CLUSTER);
+            }
+
+            disk.writeSectors(start, run, ByteBuffer.wrap(b, off + written * Layout.PER_SECTOR_SIZE,
+                    run * Layout.PER_SECTOR_SIZE));
+            currentSectorIdx = start + run - 1;
+            written += run;
+            count += run * Layout.PER_SECTOR_SIZE;
+            markCount += run * Layout.PER_SECTOR_SIZE;
+        }
+
+        System.arraycopy(b, off + (written - 1) * Layout.PER_SECTOR_SIZE, buffer, 0, buffer.length);
+        bufferWritten = true;
+        pos = buffer.length;
+        return written;
+    }
+
+    private static int clustersFor(int sectors) {
+        return (sectors + Layout.SECTORS_PER_CLUSTER - 1) / Layout.SECTORS_PER_CLUSTER;
+    }
+
     private int nextSector() {
+        return nextSector(1);
+    }
+
+    /**
+     * @param sectors 预计还要写入的扇区数，需要分配簇时据此预留
+     */
+    private int nextSector(int sectors) {
         int next = -1;
         if (currentSectorIdx == lastSectorIdx(currentClusterIdx)) {
-            int nextCluster = fat.nextFreeCluster(currentClusterIdx);
-            if (nextCluster < 0) {
-                return -1;
+            // 簇链上已有后续簇（如预分配）时直接使用
+            int nextCluster = fat.readCluster(currentClusterIdx);
+            if (nextCluster == fat.getEndOfChain()) {
+                nextCluster = allocateCluster(clustersFor(sectors));
+                if (nextCluster < 0) {
+                    return -1;
+                }
+                clusterAllocated = true;
             }
-            
+
             currentClusterIdx = nextCluster;
             next = firstSectorIdx(currentClusterIdx);
         } else {
@@ -98,6 +275,32 @@ public class FatFileOutputStream extends OutputStream {
         return next;
     }
 
+    /**
+     * 从预留区间中取下一个簇加入簇链，预留区间用完后再预留一段连续的簇
+     *
+     * @param clusters 预计需要的簇数，大于默认预留数量时按此预留
+     */
+    private int allocateCluster(int clusters) {
+        if (reservation == null || reservedNext >= reservation.end()) {
+            reservation = fat.reserveExtent(currentClusterIdx, Math.max(RESERVE_CLUSTERS, clusters));
+            if (reservation == null) {
+                return -1;
+            }
+            reservedNext = reservation.start;
+        }
+
+        int cluster = reservedNext++;
+        fat.appendCluster(currentClusterIdx, cluster);
+        return cluster;
+    }
+
+    private void releaseReservation() {
+        if (reservation != null && reservedNext < reservation.end()) {
+            fat.releaseExtent(new Extent(reservedNext, reservation.end() - reservedNext));
+        }
+        reservation = null;
+    }
+
     private static int firstSectorIdx(int clusterIdx) {
         return Layout.getClusterDataStartSector(clusterIdx);
     }
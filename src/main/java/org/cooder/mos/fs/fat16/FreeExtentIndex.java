@@ -0,0 +1,198 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 空闲索引：位图记录每个位置是否空闲，有序表记录连续的空闲区间（起始位置 -> 长度），
+ * 另按(长度, 起始位置)排序索引同一批区间，用于按长度查找。
+ * <p>
+ * 判断空闲为O(1)，查找最小空闲位置、按长度查找区间、占用和释放均为O(log n)，n为空闲区间数量。非线程安全，由调用方加锁。
+ */
+public class FreeExtentIndex {
+    private final long[] bitmap;
+    private final int size;
+    private int freeCount = 0;
+    private final TreeMap<Integer, Integer> extents = new TreeMap<>();
+
+    /**
+     * 按长度排序的空闲区间，元素为{@code 长度 << 32 | 起始位置}
+     */
+    private final TreeSet<Long> bySize = new TreeSet<>();
+
+    /**
+     * @param size 索引范围，初始时全部为已占用
+     */
+    public FreeExtentIndex(int size) {
+        this.size = size;
+        this.bitmap = new long[(size + 63) >>> 6];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int freeCount() {
+        return freeCount;
+    }
+
+    public boolean isFree(int idx) {
+        return (bitmap[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    /**
+     * @return 最小的空闲位置，不存在时返回-1
+     */
+    public int first() {
+        return extents.isEmpty() ? -1 : extents.firstKey();
+    }
+
+    /**
+     * 查找一段连续的空闲区间。依次尝试：从hint开始且长度足够的区间、长度不小于count的最短区间（等长时取起始位置最小的），
+     * 都不满足时返回从hint开始的区间与最长区间中较长的一个。
+     *
+     * @param count 期望的长度
+     * @param hint 期望的起始位置，不需要时传-1
+     * @return 长度不超过count的空闲区间，没有空闲位置时返回null
+     */
+    public Extent findRun(int count, int hint) {
+        Extent best = null;
+        if (hint >= 0 && hint < size && isFree(hint)) {
+            Map.Entry<Integer, Integer> e = extents.floorEntry(hint);
+            int length = e.getKey() + e.getValue() - hint;
+            if (length >= count) {
+                return new Extent(hint, count);
+            }
+            best = new Extent(hint, length);
+        }
+
+        Long fit = bySize.ceiling((long) count << 32);
+        if (fit != null) {
+            return new Extent(startOf(fit), count);
+        }
+
+        if (!bySize.isEmpty()) {
+            long longest = bySize.last();
+            if (best == null || lengthOf(longest) > best.length) {
+                best = new Extent(startOf(longest), lengthOf(longest));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 将全部位置标记为已占用
+     */
+    public void reset() {
+        for (int i = 0; i < bitmap.length; i++) {
+            bitmap[i] = 0;
+        }
+        extents.clear();
+        bySize.clear();
+        freeCount = 0;
+    }
+
+    public void markUsed(int idx) {
+        if (!isFree(idx)) {
+            return;
+        }
+
+        bitmap[idx >>> 6] &= ~(1L << idx);
+        freeCount--;
+
+        Map.Entry<Integer, Integer> e = extents.floorEntry(idx);
+        int start = e.getKey();
+        int end = start + e.getValue();
+        remove(start);
+        if (idx > start) {
+            put(start, idx - start);
+        }
+        if (idx + 1 < end) {
+            put(idx + 1, end - idx - 1);
+        }
+    }
+
+    public void markUsed(int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            markUsed(i);
+        }
+    }
+
+    public void markFree(int idx) {
+        if (isFree(idx)) {
+            return;
+        }
+
+        bitmap[idx >>> 6] |= 1L << idx;
+        freeCount++;
+        merge(idx, idx + 1);
+    }
+
+    /**
+     * 将一段当前全部已占用的区间标记为空闲
+     *
+     * @param start 起始位置
+     * @param count 数量
+     */
+    public void markFree(int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            if (isFree(i)) {
+                throw new IllegalStateException("already free: " + i);
+            }
+            bitmap[i >>> 6] |= 1L << i;
+        }
+        freeCount += count;
+        merge(start, start + count);
+    }
+
+    /**
+     * 登记空闲区间[start, end)，并与相邻的空闲区间合并
+     */
+    private void merge(int start, int end) {
+        Map.Entry<Integer, Integer> lower = extents.lowerEntry(start);
+        if (lower != null && lower.getKey() + lower.getValue() == start) {
+            start = lower.getKey();
+            remove(start);
+        }
+
+        Integer higher = remove(end);
+        if (higher != null) {
+            end += higher;
+        }
+        put(start, end - start);
+    }
+
+    private void put(int start, int length) {
+        extents.put(start, length);
+        bySize.add(sizeKey(start, length));
+    }
+
+    private Integer remove(int start) {
+        Integer length = extents.remove(start);
+        if (length != null) {
+            bySize.remove(sizeKey(start, length));
+        }
+        return length;
+    }
+
+    private static long sizeKey(int start, int length) {
+        return (long) length << 32 | start;
+    }
+
+    private static int startOf(long sizeKey) {
+        return (int) sizeKey;
+    }
+
+    private static int lengthOf(long sizeKey) {
+        return (int) (sizeKey >>> 32);
+    }
+}
@@ -9,6 +9,7 @@
 package org.cooder.mos.fs.fat16;
 
 import java.io.Closeable;
+import java.util.function.IntConsumer;
 
 public interface IFAT16 extends Closeable {
 
@@ -36,6 +37,45 @@ public interface IFAT16 extends Closeable {
      */
     void markFreeFrom(int clusterIdx);
 
+    /**
+     * @return 剩余的空闲簇数量
+     */
+    int freeClusterCount();
+
+    /**
+     * 预留一段连续的空闲簇。预留的簇不会被其他分配使用，但在FAT表中仍为空闲，
+     * 通过{@link #appendCluster(int, int)}加入簇链，未使用的部分须通过{@link #releaseExtent(Extent)}归还。
+     *
+     * @param preCluster 链表尾节点，优先预留紧接其后的簇，不存在时传-1
+     * @param count 期望的簇数量
+     * @return 预留的区间，长度可能小于count；没有空闲簇时返回null
+     */
+    Extent reserveExtent(int preCluster, int count);
+
+    /**
+     * 归还预留区间中尚未加入簇链的簇
+     *
+     * @param extent 预留区间
+     */
+    void releaseExtent(Extent extent);
+
+    /**
+     * 将一个预留的簇加入簇链，调用后该簇的值为{@code 0xFFF8}
+     *
+     * @param preCluster 链表尾节点
+     * @param clusterIdx 预留的簇索引
+     */
+    void appendCluster(int preCluster, int clusterIdx);
+
+    /**
+     * 在簇链末尾追加指定数量的簇，优先分配连续的簇
+     *
+     * @param clusterIdx 簇链的起始簇
+     * @param count 追加的簇数量
+     * @return 实际追加的簇数量，磁盘空间不足时小于count
+     */
+    int extendChain(int clusterIdx, int count);
+
     /**
      * 从指定的簇开始的最后一个簇。
      *
@@ -52,6 +92,15 @@ public interface IFAT16 extends Closeable {
      */
     int clusterCountFrom(int clusterIdx);
 
+    /**
+     * 定位簇链中的第offset个簇，文件中的字节偏移x位于第{@code x / PER_CLUSTER_SIZE}个簇
+     *
+     * @param clusterIdx 簇链的起始簇
+     * @param offset 簇在簇链中的序号，从0开始
+     * @return 簇索引，超出簇链长度时返回-1
+     */
+    int clusterAt(int clusterIdx, int offset);
+
     /**
      *
      * @param clusterIdx
@@ -59,6 +108,24 @@ public interface IFAT16 extends Closeable {
      */
     int[] clusterFrom(int clusterIdx);
 
+    /**
+     * 将从clusterIdx开始的链表写入clusters，clusters原有内容会被清空，可重复使用以避免分配数组
+     *
+     * @param clusterIdx 簇链的起始簇
+     * @param clusters 用于接收结果的列表
+     * @return clusters
+     */
+    IntList clusterFrom(int clusterIdx, IntList clusters);
+
+    /**
+     * 按簇链顺序处理从clusterIdx开始的每个簇，由簇链映射遍历，不分配内存。
+     * 遍历期间持有FAT表的读锁，action中不能修改文件分配表
+     *
+     * @param clusterIdx 簇链的起始簇
+     * @param action 对每个簇索引的处理
+     */
+    void forEachCluster(int clusterIdx, IntConsumer action);
+
     /**
      * 从文件分配表（FAT）里读取一个指定簇的值。
      *
@@ -84,6 +151,11 @@ public interface IFAT16 extends Closeable {
      */
     void writeCluster(int clusterIdx, int valueToWrite);
 
+    /**
+     * 将文件分配表（FAT）中被修改过的扇区写回磁盘
+     */
+    void flush();
+
     //
     // 目录操作
     //
@@ -151,46 +151,32 @@ public class Layout {
         public int fileSize;
 
         public byte[] toBytes() {
-            ByteBuffer buf = ByteBuffer.allocateDirect(32);
-            buf.put(fileName);
-            buf.put(extension);
-            buf.put(attrs);
-            buf.put(reserved);
-            buf.put(creation);
-            buf.putShort(createTime);
-            buf.putShort(createDate);
-            buf.putShort(lastAccessDate);
-            buf.putShort(lastWriteTime);
-            buf.putShort(lastWriteDate);
-            buf.putShort(startingCluster);
-            buf.putInt(fileSize);
-
-            buf.rewind();
-
             byte[] data = new byte[32];
-            buf.get(data);
+            writeTo(data, 0);
             return data;
         }
 
+        /**
+         * 将目录项写入data的指定偏移处
+         */
+        public void writeTo(byte[] data, int offset) {
+            DirectoryEntryCodec.write(this, data, offset);
+        }
+
+        /**
+         * @return 是否长文件名项
+         */
+        public boolean isLfn() {
+            return (attrs & ATTR_MASK_LFN) == ATTR_MASK_LFN;
+        }
+
         public static DirectoryEntry from(byte[] data) {
-            ByteBuffer buf = ByteBuffer.allocateDirect(32);
-            buf.put(data);
-            buf.rewind();
+            return from(data, 0);
+        }
 
+        public static DirectoryEntry from(byte[] data, int offset) {
             DirectoryEntry e = new DirectoryEntry();
-            buf.get(e.fileName, 0, 8);
-            buf.get(e.extension, 0, 3);
-            e.attrs = buf.get();
-            e.reserved = buf.get();
-            e.creation = buf.get();
-            e.createTime = buf.getShort();
-            e.createDate = buf.getShort();
-            e.lastAccessDate = buf.getShort();
-            e.lastWriteTime = buf.getShort();
-            e.lastWriteDate = buf.getShort();
-            e.startingCluster = buf.getShort();
-            e.fileSize = buf.getInt();
-
+            DirectoryEntryCodec.read(data, offset, e);
             return e;
         }
 
@@ -218,18 +204,13 @@ public class Layout {
         public byte[] part2 = new byte[20];
 
         @Override
-        public byte[] toBytes() {
-            ByteBuffer buf = ByteBuffer.allocateDirect(32);
-            buf.put(ordinal);
-            buf.put(part1);
-            buf.put(attrs);
-            buf.put(part2);
-
-            buf.rewind();
+        public void writeTo(byte[] data, int offset) {
+            DirectoryEntryCodec.write(this, data, offset);
+        }
 
-            byte[] data = new byte[32];
-            buf.get(data);
-            return data;
+        @Override
+        public boolean isLfn() {
+            return (attrs & ATTR_MASK_LFN) == ATTR_MASK_LFN;
         }
 
         public boolean last() {
@@ -241,16 +222,12 @@ public class Layout {
         }
 
         public static LfnEntry from(byte[] data) {
-            ByteBuffer buf = ByteBuffer.allocateDirect(32);
-            buf.put(data);
-            buf.rewind();
+            return from(data, 0);
+        }
 
+        public static LfnEntry from(byte[] data, int offset) {
             LfnEntry lfn = new LfnEntry();
-            lfn.ordinal = buf.get();
-            buf.get(lfn.part1, 0, 10);
-            lfn.attrs = buf.get();
-            buf.get(lfn.part2, 0, 20);
-
+            DirectoryEntryCodec.read(data, offset, lfn);
             return lfn;
         }
 
@@ -261,11 +238,7 @@ public class Layout {
     }
 
     public static boolean isLFN(byte[] data) {
-        ByteBuffer buf = ByteBuffer.allocateDirect(32);
-        buf.put(data);
-        buf.rewind();
-        buf.position(11);
-        return (buf.get() & ATTR_MASK_LFN) == ATTR_MASK_LFN;
+        return DirectoryEntryCodec.isLfn(data, 0);
     }
 
     public static int getClusterDataStartSector(int clusterIdx) {
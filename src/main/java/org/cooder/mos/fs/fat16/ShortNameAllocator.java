@@ -0,0 +1,106 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cooder.mos.fs.fat16.Layout.DirectoryEntry;
+import org.cooder.mos.fs.fat16.Layout.LfnEntry;
+
+/**
+ * 长文件名的短文件名分配，每个目录一个实例。
+ * <p>
+ * 短文件名形如{@code 前缀~序号}，共8个字节。按前缀记录已使用的序号，序号位数增加时前缀相应缩短：
+ * {@code ABCDEF~1}到{@code ABCDEF~9}用完后依次为{@code ABCDE~10}、{@code ABCD~100}，最大序号为999999。
+ */
+public class ShortNameAllocator {
+    public static final int MAX_TAIL = 999999;
+
+    private static final char FLAG = LfnEntry.SHORT_NAME_FLAG.charAt(0);
+
+    private final Map<String, BitSet> used = new HashMap<>();
+
+    /**
+     * 记录目录中已存在的短文件名，不带序号的名称忽略
+     */
+    public void add(String shortName) {
+        int i = tailIndex(shortName);
+        if (i >= 0) {
+            used.computeIfAbsent(shortName.substring(0, i), k -> new BitSet())
+                    .set(Integer.parseInt(shortName.substring(i + 1)));
+        }
+    }
+
+    public void remove(String shortName) {
+        int i = tailIndex(shortName);
+        if (i >= 0) {
+            BitSet tails = used.get(shortName.substring(0, i));
+            if (tails != null) {
+                tails.clear(Integer.parseInt(shortName.substring(i + 1)));
+            }
+        }
+    }
+
+    /**
+     * 为长文件名分配未使用的短文件名，分配结果在写入目录项后才被记录
+     *
+     * @param lfn 长文件名
+     * @return 短文件名，8个字节
+     */
+    public byte[] allocate(String lfn) {
+        int lo = 1;
+        for (int digits = 1; lo <= MAX_TAIL; digits++, lo *= 10) {
+            // 按磁盘上的字节还原前缀，与add记录的名称一致
+            String prefix = DirectoryTreeNode.byteArray2String(prefix(lfn, DirectoryEntry.FILE_NAME_LENGTH - 1 - digits));
+            int hi = lo * 10 - 1;
+            BitSet tails = used.get(prefix);
+            int tail = tails == null ? lo : tails.nextClearBit(lo);
+            if (tail <= hi) {
+                byte[] b = new byte[DirectoryEntry.FILE_NAME_LENGTH];
+                byte[] name = (prefix + FLAG + tail).getBytes(StandardCharsets.ISO_8859_1);
+                System.arraycopy(name, 0, b, 0, name.length);
+                return b;
+            }
+        }
+        throw new IllegalStateException("too many files with the same prefix: " + lfn);
+    }
+
+    /**
+     * @return 序号标志的位置，不带序号时返回-1
+     */
+    private static int tailIndex(String shortName) {
+        int i = shortName.lastIndexOf(FLAG);
+        if (i < 0 || i == shortName.length() - 1) {
+            return -1;
+        }
+        for (int j = i + 1; j < shortName.length(); j++) {
+            char c = shortName.charAt(j);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return shortName.length() - i - 1 <= 6 ? i : -1;
+    }
+
+    /**
+     * 取长文件名编码后的前缀，不超过length个字节且不截断字符
+     */
+    private static byte[] prefix(String lfn, int length) {
+        String prefix = lfn.substring(0, Math.min(lfn.length(), length));
+        byte[] b = prefix.getBytes();
+        while (b.length > length) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+            b = prefix.getBytes();
+        }
+        return b;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 目录树内存管理：按访问顺序记录已展开的目录，占用超出预算时将最久未访问的目录折叠回仅在磁盘上的状态。
+ * <p>
+ * 折叠目录会丢弃其下的全部节点，因此被固定的节点（打开的文件、会话的工作目录）及其祖先目录不会被折叠，
+ * 正在展开的目录的祖先同样不会被折叠。根目录始终保持展开。
+ * <p>
+ * 折叠只在持有{@link FAT16#getTreeLock()}时进行，与目录项的查找和读写互斥。
+ */
+public class TreeMemoryManager {
+
+    /**
+     * 默认预算8MiB，约256个单簇目录
+     */
+    public static final long DEFAULT_BUDGET = 8L * 1024 * 1024;
+
+    private final FAT16 fat;
+    private long budget = DEFAULT_BUDGET;
+
+    /**
+     * 已展开的非根目录，按访问顺序排列
+     */
+    private final Map<DirectoryTreeNode, Boolean> dirs = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 节点的固定计数，固定一个节点时其全部祖先同时计数
+     */
+    private final Map<DirectoryTreeNode, Integer> pins = new IdentityHashMap<>();
+
+    private Consumer<DirectoryTreeNode> foldListener;
+    private long foldCount = 0;
+
+    TreeMemoryManager(FAT16 fat) {
+        this.fat = fat;
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * 设置已展开目录的内存预算（字节）
+     */
+    public void setBudget(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget: " + budget);
+        }
+
+        // 目录树锁须先于本对象的锁获取，与展开目录时的加锁顺序一致
+        fat.getTreeLock().lock();
+        try {
+            synchronized (this) {
+                this.budget = budget;
+                trim(null);
+            }
+        } finally {
+            fat.getTreeLock().unlock();
+        }
+    }
+
+    /**
+     * 设置目录折叠后的回调，用于失效引用了被丢弃节点的缓存
+     */
+    public synchronized void setFoldListener(Consumer<DirectoryTreeNode> foldListener) {
+        this.foldListener = foldListener;
+    }
+
+    /**
+     * 目录被展开，必要时折叠其他冷目录，调用方须持有目录树锁
+     */
+    synchronized void unfolded(DirectoryTreeNode dir) {
+        if (dir.isRoot()) {
+            return;
+        }
+        dirs.put(dir, Boolean.TRUE);
+        trim(dir);
+    }
+
+    /**
+     * 记录一次目录访问
+     */
+    synchronized void touch(DirectoryTreeNode dir) {
+        dirs.get(dir);
+    }
+
+    public synchronized void pin(DirectoryTreeNode node) {
+        for (DirectoryTreeNode n = node; n != null; n = n.parent) {
+            pins.merge(n, 1, Integer::sum);
+        }
+    }
+
+    public synchronized void unpin(DirectoryTreeNode node) {
+        for (DirectoryTreeNode n = node; n != null; n = n.parent) {
+            pins.computeIfPresent(n, (k, v) -> v > 1 ? v - 1 : null);
+        }
+    }
+
+    public synchronized boolean isPinned(DirectoryTreeNode node) {
+        return pins.containsKey(node);
+    }
+
+    /**
+     * @return 已展开的非根目录占用的内存估算（字节）
+     */
+    public synchronized long usage() {
+        long used = 0;
+        for (DirectoryTreeNode dir : dirs.keySet()) {
+            // 删除目录时不持有本对象的锁，只读取一次
+            DirectorySlots slots = dir.getSlots();
+            if (slots != null) {
+                used += slots.footprint();
+            }
+        }
+        return used;
+    }
+
+    public synchronized int unfoldedCount() {
+        return dirs.size();
+    }
+
+    public synchronized long foldCount() {
+        return foldCount;
+    }
+
+    /**
+     * 目录树重新加载，丢弃全部记录
+     */
+    synchronized void clear() {
+        dirs.clear();
+        pins.clear();
+    }
+
+    /**
+     * 按访问顺序折叠冷目录，直到占用不超出预算
+     *
+     * @param current 正在展开的目录，它和它的祖先不会被折叠
+     */
+    private void trim(DirectoryTreeNode current) {
+        long used = usage();
+        if (used <= budget) {
+            return;
+        }
+
+        List<DirectoryTreeNode> candidates = new ArrayList<>(dirs.keySet());
+        for (DirectoryTreeNode dir : candidates) {
+            if (used <= budget) {
+                break;
+            }
+            if (dir.isFold()) {
+                // 已删除或已随祖先折叠
+                dirs.remove(dir);
+                continue;
+            }
+            if (pins.containsKey(dir) || isAncestor(dir, current)) {
+                continue;
+            }
+            used -= fold(dir);
+        }
+    }
+
+    /**
+     * 折叠目录及其下已展开的子目录，调用方须持有目录树锁
+     *
+     * @return 释放的内存估算
+     */
+    private long fold(DirectoryTreeNode dir) {
+        DirectorySlots slots = dir.getSlots();
+        long released = slots.footprint();
+        for (int i = 0; i < slots.size(); i++) {
+            DirectoryTreeNode child = slots.peek(i);
+            if (child != null && child.valid() && child.isDir() && !child.isFold()) {
+                released += fold(child);
+            }
+        }
+
+        dirs.remove(dir);
+        fat.foldTreeNode(dir);
+        foldCount++;
+        if (foldListener != null) {
+            foldListener.accept(dir);
+        }
+        return released;
+    }
+
+    private static boolean isAncestor(DirectoryTreeNode dir, DirectoryTreeNode node) {
+        for (DirectoryTreeNode n = node; n != null; n = n.parent) {
+            if (n == dir) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -36,7 +36,7 @@ public class Shell implements Runnable {
 
     public Shell(String rootPath) {
         this.rootPath = rootPath;
-        this.current = MosSystem.fileSystem().find(new String[]{rootPath});
+        setCurrent(MosSystem.fileSystem().find(new String[]{rootPath}));
     }
 
     public String currentPath() {
@@ -67,6 +67,7 @@ public class Shell implements Runnable {
             }
         } finally {
             Utils.close(scanner);
+            MosSystem.fileSystem().unpin(current);
         }
     }
 
@@ -82,7 +83,7 @@ public class Shell implements Runnable {
         String[] paths = null;
 
         if (path.equals("/")) {
-            current = MosSystem.fileSystem().find(new String[] { rootPath });
+            setCurrent(MosSystem.fileSystem().find(new String[] { rootPath }));
             return;
         }
 
@@ -91,7 +92,7 @@ public class Shell implements Runnable {
                 return;
             }
             String[] ps = Utils.normalizePath(current.getParentPath());
-            current = MosSystem.fileSystem().find(ps);
+            setCurrent(MosSystem.fileSystem().find(ps));
             return;
         }
 
@@ -107,7 +108,7 @@ public class Shell implements Runnable {
             return;
         }
 
-        current = node;
+        setCurrent(node);
     }
 
     public String[] absolutePath(String path) {
@@ -135,6 +136,17 @@ public class Shell implements Runnable {
     }
 
     private void resetToRootPath() {
-        this.current = MosSystem.fileSystem().find(new String[]{rootPath});
+        setCurrent(MosSystem.fileSystem().find(new String[]{rootPath}));
+    }
+
+    /**
+     * 切换工作目录，工作目录固定在内存中
+     */
+    private void setCurrent(FileDescriptor fd) {
+        if (current != null) {
+            MosSystem.fileSystem().unpin(current);
+        }
+        current = fd;
+        MosSystem.fileSystem().pin(current);
     }
 }
@@ -27,6 +27,7 @@ import picocli.CommandLine.Help.TextTable;
 import picocli.CommandLine.Parameters;
 import picocli.CommandLine.ParentCommand;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -38,6 +39,11 @@ import static org.cooder.mos.fs.IFileSystem.WRITE;
 @Command
 public abstract class MosCommand implements Callable<Integer> {
 
+    /**
+     * 重定向输出的缓冲大小，与簇大小一致，使文件按整簇批量写入
+     */
+    private static final int REDIRECT_BUFFER_SIZE = 32 * 1024;
+
     @ParentCommand
     protected Shell shell;
 
@@ -90,7 +96,7 @@ public abstract class MosCommand implements Callable<Integer> {
             return;
         }
         FileOutputStream fos = new FileOutputStream(mosFile, mode);
-        this.out = new PrintStream(fos);
+        this.out = new PrintStream(new BufferedOutputStream(fos, REDIRECT_BUFFER_SIZE));
 
         try {
             call();
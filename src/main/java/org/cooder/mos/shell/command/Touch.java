@@ -16,6 +16,7 @@ import org.cooder.mos.api.MosFile;
 import org.cooder.mos.fs.FileSystem;
 
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
 @Command(name = "touch", header = "Create the file.")
@@ -23,6 +24,10 @@ public class Touch extends MosCommand {
     @Parameters(paramLabel = "<path>")
     private String path;
 
+    @Option(names = {"-l", "--length"}, paramLabel = "<bytes>",
+                    description = "Preallocate contiguous space for the file, file size is unchanged.")
+    private int length = 0;
+
     @Override
     public int runCommand() {
         String[] paths = shell.absolutePath(path);
@@ -38,6 +43,10 @@ public class Touch extends MosCommand {
             Utils.close(fos);
         }
 
+        if (length > 0) {
+            new MosFile(paths).preallocate(length);
+        }
+
         return 0;
     }
 }
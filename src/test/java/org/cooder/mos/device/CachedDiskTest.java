@@ -0,0 +1,188 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.device;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cooder.mos.device.CachedDisk.WritePolicy;
+import org.cooder.mos.fs.fat16.Layout;
+import org.junit.Test;
+
+public class CachedDiskTest {
+
+    private static final int DATA = Layout.DATA_REGION_START;
+
+    private static byte[] sector(int value) {
+        byte[] b = new byte[Layout.PER_SECTOR_SIZE];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    @Test
+    public void writeThroughByDefault() {
+        MemoryDisk raw = new MemoryDisk();
+        CachedDisk disk = new CachedDisk(raw);
+
+        assertEquals(WritePolicy.WRITE_THROUGH, disk.getWritePolicy());
+        disk.writeSector(DATA, sector(1));
+        disk.writeSectors(DATA + 1, 2, ByteBuffer.wrap(new byte[2 * Layout.PER_SECTOR_SIZE]));
+
+        assertEquals(0, disk.dirtyCount());
+        assertArrayEquals(sector(1), raw.stored(DATA));
+        assertEquals(Arrays.asList(DATA, DATA + 1, DATA + 2), raw.writes());
+        assertArrayEquals(sector(1), disk.readSector(DATA));
+        assertEquals(1, disk.hitCount());
+    }
+
+    @Test
+    public void writeBackDefersUntilSync() {
+        MemoryDisk raw = new MemoryDisk();
+        CachedDisk disk = new CachedDisk(raw, 64, WritePolicy.WRITE_BACK);
+
+        disk.writeSector(DATA, sector(2));
+        disk.writeSector(DATA + 1, sector(3));
+        assertEquals(2, disk.dirtyCount());
+        assertTrue(raw.writes().isEmpty());
+        assertArrayEquals(sector(2), disk.readSector(DATA));
+
+        disk.sync();
+        assertEquals(0, disk.dirtyCount());
+        assertEquals(1, raw.syncCount());
+        assertArrayEquals(sector(2), raw.stored(DATA));
+        assertArrayEquals(sector(3), raw.stored(DATA + 1));
+    }
+
+    @Test
+    public void evictionWritesBackDirtySectors() {
+        MemoryDisk raw = new MemoryDisk();
+        CachedDisk disk = new CachedDisk(raw, 4, WritePolicy.WRITE_BACK);
+
+        for (int i = 0; i < 10; i++) {
+            disk.writeSector(DATA + i, sector(i + 1));
+        }
+        assertTrue(disk.dirtyCount() <= 4);
+        assertArrayEquals(sector(1), raw.stored(DATA));
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(sector(i + 1), disk.readSector(DATA + i));
+        }
+    }
+
+    @Test
+    public void bypassWriteFlushesDirtySectorsFirst() {
+        MemoryDisk raw = new MemoryDisk();
+        CachedDisk disk = new CachedDisk(raw, 64, WritePolicy.WRITE_BACK);
+
+        // FAT扇区常驻缓存，写入后为脏扇区
+        disk.writeSector(Layout.FAT_REGION_START, sector(7));
+        int count = CachedDisk.BYPASS_SECTORS + 1;
+        byte[] block = new byte[count * Layout.PER_SECTOR_SIZE];
+        Arrays.fill(block, (byte) 9);
+        disk.writeSectors(DATA, count, ByteBuffer.wrap(block));
+
+        List<Integer> writes = raw.writes();
+        assertEquals(1 + count, writes.size());
+        assertEquals(Layout.FAT_REGION_START, (int) writes.get(0));
+        assertEquals(DATA, (int) writes.get(1));
+        assertEquals(0, disk.dirtyCount());
+        assertArrayEquals(sector(7), raw.stored(Layout.FAT_REGION_START));
+        assertArrayEquals(sector(9), raw.stored(DATA + count - 1));
+    }
+
+    @Test
+    public void bypassWriteUpdatesCachedSectors() {
+        MemoryDisk raw = new MemoryDisk();
+        CachedDisk disk = new CachedDisk(raw, 64, WritePolicy.WRITE_BACK);
+
+        disk.writeSector(DATA + 1, sector(1));
+        int count = CachedDisk.BYPASS_SECTORS + 1;
+        byte[] block = new byte[count * Layout.PER_SECTOR_SIZE];
+        Arrays.fill(block, (byte) 5);
+        disk.writeSectors(DATA, count, ByteBuffer.wrap(block));
+
+        assertArrayEquals(sector(5), disk.readSector(DATA + 1));
+        assertArrayEquals(sector(5), raw.stored(DATA + 1));
+    }
+
+    @Test
+    public void bypassReadSeesDirtySectors() {
+        MemoryDisk raw = new MemoryDisk();
+        CachedDisk disk = new CachedDisk(raw, 64, WritePolicy.WRITE_BACK);
+
+        disk.writeSector(DATA + 3, sector(4));
+        int count = CachedDisk.BYPASS_SECTORS + 1;
+        ByteBuffer dst = ByteBuffer.allocate(count * Layout.PER_SECTOR_SIZE);
+        disk.readSectors(DATA, count, dst);
+
+        assertEquals(dst.capacity(), dst.position());
+        byte[] got = new byte[Layout.PER_SECTOR_SIZE];
+        dst.position(3 * Layout.PER_SECTOR_SIZE);
+        dst.get(got);
+        assertArrayEquals(sector(4), got);
+        assertArrayEquals(new byte[Layout.PER_SECTOR_SIZE], raw.stored(DATA + 3));
+    }
+
+    @Test
+    public void pinnedSectorsAreBoundedByCapacity() {
+        CachedDisk disk = new CachedDisk(new MemoryDisk(), 64);
+
+        assertTrue(disk.pin(DATA, 16));
+        assertTrue(disk.pin(DATA + 16, 16));
+        assertEquals(32, disk.pinnedCount());
+        // 超出容量的一半，不再常驻
+        assertFalse(disk.pin(DATA + 100, 8));
+        assertEquals(32, disk.pinnedCount());
+
+        // 重复常驻同一范围不重复计数
+        assertTrue(disk.pin(DATA, 16));
+        assertEquals(32, disk.pinnedCount());
+
+        disk.unpin(DATA + 100, 8);
+        assertEquals(32, disk.pinnedCount());
+        disk.unpin(DATA + 16, 16);
+        assertEquals(16, disk.pinnedCount());
+        assertTrue(disk.pin(DATA + 100, 8));
+        assertEquals(24, disk.pinnedCount());
+    }
+
+    @Test
+    public void pinnedSectorsShareCapacity() {
+        CachedDisk disk = new CachedDisk(new MemoryDisk(), 64);
+        disk.pin(DATA, 32);
+        assertFalse(disk.pin(DATA + 1000, 4));
+        for (int i = 0; i < 32; i++) {
+            disk.readSector(DATA + i);
+        }
+        disk.readSector(DATA + 1000);
+
+        // 剩余容量只有32个扇区，扫描后未常驻的扇区被淘汰，常驻扇区仍命中
+        for (int i = 0; i < 64; i++) {
+            disk.readSector(DATA + 2000 + i);
+        }
+        long misses = disk.missCount();
+        for (int i = 0; i < 32; i++) {
+            disk.readSector(DATA + i);
+        }
+        assertEquals(misses, disk.missCount());
+        disk.readSector(DATA + 1000);
+        assertEquals(misses + 1, disk.missCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSectorsBeyondDisk() {
+        CachedDisk disk = new CachedDisk(new MemoryDisk());
+        disk.readSectors(disk.sectorCount() - 1, 2, ByteBuffer.allocate(2 * Layout.PER_SECTOR_SIZE));
+    }
+}
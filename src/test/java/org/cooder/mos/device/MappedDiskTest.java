@@ -0,0 +1,119 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.device;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cooder.mos.fs.fat16.Layout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedDiskTest {
+
+    private static final int SECTOR = Layout.PER_SECTOR_SIZE;
+    private static final int SEGMENT_SECTORS = 128;
+
+    private File image;
+    private MappedDisk disk;
+
+    @Before
+    public void setUp() throws IOException {
+        image = File.createTempFile("mos-mapped", ".img");
+        disk = new MappedDisk(image.getPath(), SEGMENT_SECTORS * SECTOR);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        disk.close();
+        image.delete();
+    }
+
+    private static byte[] sector(int value) {
+        byte[] b = new byte[SECTOR];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    @Test
+    public void bulkTransferCrossesSegments() {
+        int start = SEGMENT_SECTORS - 2;
+        byte[] data = new byte[5 * SECTOR];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        disk.writeSectors(start, 5, ByteBuffer.wrap(data));
+
+        byte[] read = new byte[data.length];
+        disk.readSectors(start, 5, ByteBuffer.wrap(read));
+        assertArrayEquals(data, read);
+        assertArrayEquals(Arrays.copyOfRange(data, 2 * SECTOR, 3 * SECTOR), disk.readSector(SEGMENT_SECTORS));
+    }
+
+    @Test
+    public void clearDropsMappedData() throws IOException {
+        disk.writeSector(3, sector(1));
+        disk.writeSector(SEGMENT_SECTORS * 5, sector(2));
+
+        disk.clear();
+        assertEquals(disk.capacity(), image.length());
+        assertArrayEquals(new byte[SECTOR], disk.readSector(3));
+        assertArrayEquals(new byte[SECTOR], disk.readSector(SEGMENT_SECTORS * 5));
+
+        // 清空后重新建立的映射可以正常读写并落盘
+        disk.writeSector(3, sector(3));
+        disk.close();
+        disk = new MappedDisk(image.getPath(), SEGMENT_SECTORS * SECTOR);
+        assertArrayEquals(sector(3), disk.readSector(3));
+    }
+
+    @Test
+    public void concurrentReadersSeeWrittenSectors() throws Exception {
+        final int sectors = 4 * SEGMENT_SECTORS;
+        for (int i = 0; i < sectors; i++) {
+            disk.writeSector(i, sector(i));
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    byte[] buffer = new byte[SECTOR];
+                    for (int round = 0; round < 20; round++) {
+                        for (int i = 0; i < sectors; i++) {
+                            disk.readSector(i, buffer);
+                            assertArrayEquals(sector(i), buffer);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.device;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cooder.mos.fs.fat16.Layout;
+
+/**
+ * 测试用的内存磁盘：只保存写过的扇区，并按顺序记录每次写入的扇区索引
+ */
+public class MemoryDisk implements IDisk {
+
+    private final Map<Integer, byte[]> sectors = new HashMap<>();
+    private final List<Integer> writes = new ArrayList<>();
+    private int syncCount = 0;
+
+    @Override
+    public int sectorSize() {
+        return Layout.PER_SECTOR_SIZE;
+    }
+
+    @Override
+    public int sectorCount() {
+        return (int) (capacity() / sectorSize());
+    }
+
+    @Override
+    public long capacity() {
+        return 2 * 1024 * 1024 * 1024L;  // 2G
+    }
+
+    @Override
+    public byte[] readSector(int sectorIdx) {
+        byte[] buffer = new byte[sectorSize()];
+        readSector(sectorIdx, buffer);
+        return buffer;
+    }
+
+    @Override
+    public synchronized void readSector(int sectorIdx, byte[] buffer) {
+        byte[] data = sectors.get(sectorIdx);
+        if (data == null) {
+            data = new byte[sectorSize()];
+        }
+        System.arraycopy(data, 0, buffer, 0, sectorSize());
+    }
+
+    @Override
+    public synchronized void writeSector(int sectorIdx, byte[] sectorData) {
+        byte[] data = new byte[sectorSize()];
+        System.arraycopy(sectorData, 0, data, 0, sectorSize());
+        sectors.put(sectorIdx, data);
+        writes.add(sectorIdx);
+    }
+
+    @Override
+    public synchronized void readSectors(int startSectorIdx, int count, ByteBuffer dst) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        byte[] buffer = new byte[sectorSize()];
+        for (int i = 0; i < count; i++) {
+            readSector(startSectorIdx + i, buffer);
+            dst.put(buffer);
+        }
+    }
+
+    @Override
+    public synchronized void writeSectors(int startSectorIdx, int count, ByteBuffer src) {
+        SectorBuffers.checkRange(this, startSectorIdx, count);
+        byte[] buffer = new byte[sectorSize()];
+        for (int i = 0; i < count; i++) {
+            src.get(buffer);
+            writeSector(startSectorIdx + i, buffer);
+        }
+    }
+
+    @Override
+    public synchronized void sync() {
+        syncCount++;
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        sectors.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * @return 按写入顺序排列的扇区索引
+     */
+    public synchronized List<Integer> writes() {
+        return new ArrayList<>(writes);
+    }
+
+    public synchronized void clearWrites() {
+        writes.clear();
+    }
+
+    public synchronized int syncCount() {
+        return syncCount;
+    }
+
+    /**
+     * @return 扇区在磁盘上的内容，不经过任何缓存
+     */
+    public synchronized byte[] stored(int sectorIdx) {
+        byte[] data = sectors.get(sectorIdx);
+        return data == null ? new byte[sectorSize()] : data.clone();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.cooder.mos.device.MemoryDisk;
+import org.cooder.mos.fs.fat16.FAT16;
+import org.cooder.mos.fs.fat16.Layout;
+import org.junit.After;
+import org.junit.Test;
+
+public class DeleteTest {
+
+    private final FileSystem fs = FileSystem.instance;
+    private final MemoryDisk disk = new MemoryDisk();
+
+    @After
+    public void tearDown() throws IOException {
+        fs.shutdown();
+    }
+
+    private void create(String... paths) throws IOException {
+        FileDescriptor fd = fs.open(paths, IFileSystem.WRITE);
+        fs.write(fd, 'x');
+        fs.close(fd);
+    }
+
+    @Test
+    public void deletesTildeNamedFileWithoutLfn() throws IOException {
+        fs.bootstrap(disk, false);
+        fs.format();
+        create("a~1");
+        create("abcdef~1");
+        int free = fs.getFat().freeClusterCount();
+
+        fs.delete(fs.find(new String[] { "a~1" }));
+        fs.delete(fs.find(new String[] { "abcdef~1" }));
+
+        assertNull(fs.find(new String[] { "a~1" }));
+        assertNull(fs.find(new String[] { "abcdef~1" }));
+        assertEquals(free + 2, fs.getFat().freeClusterCount());
+    }
+
+    @Test
+    public void deletesFileInHighClusters() throws IOException {
+        fs.bootstrap(disk, false);
+        fs.format();
+
+        // 占满前一半的簇，新文件的簇索引超出short的表示范围
+        FAT16 fat = fs.getFat();
+        for (int i = Layout.HEAD_CLUSTER_COUNT; i <= 0x8000; i++) {
+            fat.writeCluster(i, fat.getEndOfChain());
+        }
+        int free = fat.freeClusterCount();
+
+        String[] path = { "high" };
+        FileDescriptor fd = fs.open(path, IFileSystem.WRITE);
+        byte[] b = new byte[2 * Layout.PER_CLUSTER_SIZE];
+        fs.write(fd, b, 0, b.length);
+        fs.close(fd);
+        assertTrue(fs.find(path).getStartingCluster() > 0x8000);
+
+        fs.delete(fs.find(path));
+        assertNull(fs.find(path));
+        assertEquals(free, fat.freeClusterCount());
+    }
+
+    @Test
+    public void refusesLfnEntryWithoutLfnSupport() throws IOException {
+        fs.bootstrap(disk, true);
+        fs.format();
+        create("a-long-file-name.txt");
+        fs.shutdown();
+
+        // 不支持长文件名时只能看到短文件名，删除会留下孤立的长文件名项
+        fs.bootstrap(disk, false);
+        FileDescriptor fd = fs.find(new String[] { "a-long~1" });
+        assertNotNull(fd);
+        try {
+            fs.delete(fd);
+            fail("deleted a node with lfn entries");
+        } catch (IllegalStateException e) {
+            assertNotNull(fs.find(new String[] { "a-long~1" }));
+        }
+    }
+}
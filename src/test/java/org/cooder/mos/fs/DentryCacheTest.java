@@ -0,0 +1,144 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.cooder.mos.fs.fat16.DirectoryTreeNode;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DentryCacheTest {
+
+    private final DirectoryTreeNode root = new DirectoryTreeNode(null, null);
+    private final DirectoryTreeNode a = new DirectoryTreeNode(root, null);
+    private final DirectoryTreeNode ab = new DirectoryTreeNode(a, null);
+    private final DirectoryTreeNode c = new DirectoryTreeNode(root, null);
+
+    private final Map<String, DirectoryTreeNode> tree = new HashMap<>();
+    private final AtomicInteger resolves = new AtomicInteger();
+    private final Function<String[], DirectoryTreeNode> resolver = paths -> {
+        resolves.incrementAndGet();
+        return tree.get(DentryCache.key(paths));
+    };
+
+    private DentryCache cache;
+
+    @Before
+    public void setUp() {
+        tree.put("/a", a);
+        tree.put("/a/b", ab);
+        tree.put("/c", c);
+        cache = new DentryCache();
+    }
+
+    private DirectoryTreeNode lookup(String... paths) {
+        return cache.lookup(paths, resolver);
+    }
+
+    @Test
+    public void cachesPositiveAndNegativeResults() {
+        assertSame(ab, lookup("a", "b"));
+        assertSame(ab, lookup("a", "b"));
+        assertNull(lookup("x"));
+        assertNull(lookup("x"));
+
+        assertEquals(2, resolves.get());
+        assertEquals(2, cache.hitCount());
+        assertEquals(2, cache.missCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void createdDropsOnlyNegativeEntries() {
+        assertNull(lookup("x"));
+        lookup("a");
+
+        DirectoryTreeNode x = new DirectoryTreeNode(root, null);
+        tree.put("/x", x);
+        cache.created();
+
+        assertSame(x, lookup("x"));
+        lookup("a");
+        assertEquals(3, resolves.get());
+    }
+
+    @Test
+    public void removedDropsNodeAndDescendants() {
+        lookup("a");
+        lookup("a", "b");
+        lookup("c");
+
+        tree.remove("/a");
+        tree.remove("/a/b");
+        cache.removed(a);
+
+        assertNull(lookup("a"));
+        assertNull(lookup("a", "b"));
+        assertSame(c, lookup("c"));
+        assertEquals(5, resolves.get());
+    }
+
+    @Test
+    public void foldedKeepsDirectoryItself() {
+        lookup("a");
+        lookup("a", "b");
+
+        cache.folded(a);
+
+        lookup("a");
+        lookup("a", "b");
+        assertEquals(3, resolves.get());
+    }
+
+    @Test
+    public void resultResolvedAcrossCreateIsNotCached() {
+        DirectoryTreeNode x = new DirectoryTreeNode(root, null);
+        // 解析期间另一线程创建了该路径
+        DirectoryTreeNode miss = cache.lookup(new String[] { "x" }, paths -> {
+            tree.put("/x", x);
+            cache.created();
+            return null;
+        });
+
+        assertNull(miss);
+        assertSame(x, lookup("x"));
+    }
+
+    @Test
+    public void resultResolvedAcrossRemoveIsNotCached() {
+        DirectoryTreeNode found = cache.lookup(new String[] { "a" }, paths -> {
+            tree.remove("/a");
+            cache.removed(a);
+            return a;
+        });
+
+        assertSame(a, found);
+        assertNull(lookup("a"));
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        lookup("a");
+        lookup("x");
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        lookup("a");
+        lookup("x");
+        assertEquals(4, resolves.get());
+    }
+}
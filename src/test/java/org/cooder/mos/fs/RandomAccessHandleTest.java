@@ -0,0 +1,200 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.cooder.mos.device.MemoryDisk;
+import org.cooder.mos.fs.fat16.Layout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RandomAccessHandleTest {
+
+    private static final String[] PATH = { "data" };
+
+    private final FileSystem fs = FileSystem.instance;
+    private final MemoryDisk disk = new MemoryDisk();
+
+    @Before
+    public void setUp() throws IOException {
+        fs.bootstrap(disk, false);
+        fs.format();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fs.setMetadataSyncInterval(FileSystem.DEFAULT_METADATA_SYNC_INTERVAL);
+        fs.shutdown();
+    }
+
+    private static byte[] fill(int length, int value) {
+        byte[] b = new byte[length];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    private static byte[] readFully(RandomAccessHandle handle, long pos, int length) throws IOException {
+        byte[] b = new byte[length];
+        int off = 0;
+        while (off < length) {
+            int n = handle.read(pos + off, b, off, length - off);
+            assertTrue(n > 0);
+            off += n;
+        }
+        return b;
+    }
+
+    /**
+     * 写满若干簇后删除，使之后分配的簇中残留非0数据
+     */
+    private void dirtyFreeClusters(int clusters) throws IOException {
+        String[] path = { "garbage" };
+        FileDescriptor fd = fs.open(path, IFileSystem.WRITE);
+        byte[] b = fill(clusters * Layout.PER_CLUSTER_SIZE, 0x5A);
+        fs.write(fd, b, 0, b.length);
+        fs.close(fd);
+        fs.delete(fs.find(path));
+    }
+
+    @Test
+    public void sparseWriteZeroFillsGap() throws IOException {
+        dirtyFreeClusters(4);
+
+        long pos = 2L * Layout.PER_CLUSTER_SIZE + 10;
+        byte[] data = { 1, 2, 3 };
+        try (RandomAccessHandle handle = fs.openRandomAccess(PATH, true)) {
+            handle.write(pos, data, 0, data.length);
+            assertEquals(pos + data.length, handle.length());
+            assertEquals(0, handle.getFilePointer());
+            assertArrayEquals(new byte[(int) pos], readFully(handle, 0, (int) pos));
+            assertArrayEquals(data, readFully(handle, pos, data.length));
+        }
+
+        fs.shutdown();
+        fs.bootstrap(disk, false);
+        try (RandomAccessHandle handle = fs.openRandomAccess(PATH, false)) {
+            assertEquals(pos + data.length, handle.length());
+            assertArrayEquals(new byte[(int) pos], readFully(handle, 0, (int) pos));
+            assertArrayEquals(data, readFully(handle, pos, data.length));
+            assertEquals(-1, handle.read(pos + data.length, new byte[1], 0, 1));
+        }
+    }
+
+    @Test
+    public void sparseWriteKeepsExistingData() throws IOException {
+        dirtyFreeClusters(2);
+
+        byte[] head = fill(Layout.PER_SECTOR_SIZE + 7, 0x11);
+        byte[] tail = fill(2 * Layout.PER_SECTOR_SIZE, 0x22);
+        long pos = Layout.PER_CLUSTER_SIZE + 3;
+        try (RandomAccessHandle handle = fs.openRandomAccess(PATH, true)) {
+            handle.write(head, 0, head.length);
+            handle.seek(pos);
+            handle.write(tail, 0, tail.length);
+            assertEquals(pos + tail.length, handle.getFilePointer());
+        }
+
+        try (RandomAccessHandle handle = fs.openRandomAccess(PATH, false)) {
+            assertEquals(pos + tail.length, handle.length());
+            assertArrayEquals(head, readFully(handle, 0, head.length));
+            int gap = (int) pos - head.length;
+            assertArrayEquals(new byte[gap], readFully(handle, head.length, gap));
+            assertArrayEquals(tail, readFully(handle, pos, tail.length));
+        }
+    }
+
+    @Test
+    public void inPlaceWriteDefersMetadataUntilSync() throws IOException {
+        fs.setMetadataSyncInterval(-1);
+        byte[] data = fill(3 * Layout.PER_SECTOR_SIZE, 0x33);
+        try (RandomAccessHandle handle = fs.openRandomAccess(PATH, true)) {
+            handle.write(data, 0, data.length);
+        }
+
+        int entrySector = fs.find(PATH).node.getSectorIdx();
+        try (RandomAccessHandle handle = fs.openRandomAccess(PATH, true)) {
+            disk.clearWrites();
+            handle.write(10, data, 0, 100);
+            handle.write(data.length, data, 0, 100);
+            assertFalse(disk.writes().contains(entrySector));
+
+            handle.sync();
+            assertTrue(disk.writes().contains(entrySector));
+        }
+    }
+
+    @Test
+    public void inPlaceWriteSyncsMetadataByInterval() throws IOException {
+        fs.setMetadataSyncInterval(0);
+        byte[] data = fill(Layout.PER_SECTOR_SIZE, 0x44);
+        try (RandomAccessHandle handle = fs.openRandomAccess(PATH, true)) {
+            handle.write(data, 0, data.length);
+            int entrySector = fs.find(PATH).node.getSectorIdx();
+
+            disk.clearWrites();
+            handle.write(0, data, 0, 10);
+            assertTrue(disk.writes().contains(entrySector));
+        }
+    }
+
+    @Test
+    public void deleteRefusesOpenFile() throws IOException {
+        RandomAccessHandle handle = fs.openRandomAccess(PATH, true);
+        handle.write(fill(10, 1), 0, 10);
+        try {
+            fs.delete(fs.find(PATH));
+            fail("deleted a file with an open handle");
+        } catch (IllegalStateException e) {
+            assertNotNull(fs.find(PATH));
+        }
+
+        // 句柄仍可使用，簇未被释放
+        handle.write(fill(Layout.PER_CLUSTER_SIZE, 2), 0, Layout.PER_CLUSTER_SIZE);
+        handle.close();
+
+        FileDescriptor fd = fs.open(PATH, IFileSystem.APPEND);
+        try {
+            fs.delete(fs.find(PATH));
+            fail("deleted a file with an open stream");
+        } catch (IllegalStateException e) {
+            assertNotNull(fs.find(PATH));
+        }
+        fs.close(fd);
+
+        fs.delete(fs.find(PATH));
+        assertNull(fs.find(PATH));
+    }
+
+    @Test
+    public void deleteRefusesPinnedDirectory() throws IOException {
+        FileDescriptor dir = fs.createDirectory(fs.find(new String[0]), "work");
+        fs.pin(dir);
+        try {
+            fs.delete(dir);
+            fail("deleted a pinned directory");
+        } catch (IllegalStateException e) {
+            assertNotNull(fs.find(new String[] { "work" }));
+        }
+
+        fs.unpin(dir);
+        fs.delete(dir);
+        assertNull(fs.find(new String[] { "work" }));
+    }
+}
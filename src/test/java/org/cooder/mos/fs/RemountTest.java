@@ -0,0 +1,147 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.cooder.mos.device.MemoryDisk;
+import org.cooder.mos.fs.fat16.Layout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 延迟写入目录项时，进程中断后重新挂载磁盘，目录项只能落后于已写入的数据和FAT
+ */
+public class RemountTest {
+
+    private static final String[] PATH = { "data" };
+
+    private final FileSystem fs = FileSystem.instance;
+    private final MemoryDisk disk = new MemoryDisk();
+
+    @Before
+    public void setUp() throws IOException {
+        fs.bootstrap(disk, false);
+        fs.format();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fs.setMetadataSyncInterval(FileSystem.DEFAULT_METADATA_SYNC_INTERVAL);
+        fs.shutdown();
+    }
+
+    /**
+     * 不关闭已打开的文件，直接在同一磁盘上重新挂载
+     */
+    private void remount() {
+        fs.bootstrap(disk, false);
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = (byte) (i * 31 + 7);
+        }
+        return b;
+    }
+
+    private byte[] readAll() throws IOException {
+        FileDescriptor fd = fs.open(PATH, IFileSystem.READ);
+        byte[] b = new byte[fd.getFileSize()];
+        int off = 0;
+        while (off < b.length) {
+            int n = fs.read(fd, b, off, b.length - off);
+            assertTrue(n > 0);
+            off += n;
+        }
+        fs.close(fd);
+        return b;
+    }
+
+    @Test
+    public void flushDefersMetadataUntilSync() throws IOException {
+        fs.setMetadataSyncInterval(-1);
+        byte[] data = pattern(3 * Layout.PER_CLUSTER_SIZE + 100);
+
+        FileDescriptor fd = fs.open(PATH, IFileSystem.WRITE);
+        fs.write(fd, data, 0, data.length);
+        fs.flush(fd);
+        remount();
+        assertEquals(0, fs.find(PATH).getFileSize());
+        assertEquals(0, disk.syncCount());
+
+        fd = fs.open(PATH, IFileSystem.WRITE);
+        fs.write(fd, data, 0, data.length);
+        fs.sync(fd);
+        assertEquals(1, disk.syncCount());
+        remount();
+
+        assertEquals(data.length, fs.find(PATH).getFileSize());
+        assertArrayEquals(data, readAll());
+    }
+
+    @Test
+    public void closeWritesMetadata() throws IOException {
+        fs.setMetadataSyncInterval(-1);
+        byte[] data = pattern(2 * Layout.PER_CLUSTER_SIZE + 1);
+
+        FileDescriptor fd = fs.open(PATH, IFileSystem.WRITE);
+        fs.write(fd, data, 0, data.length);
+        fs.close(fd);
+        remount();
+
+        assertArrayEquals(data, readAll());
+    }
+
+    @Test
+    public void bulkWriteSyncsMetadataByInterval() throws IOException {
+        fs.setMetadataSyncInterval(0);
+        byte[] data = pattern(5 * Layout.PER_CLUSTER_SIZE);
+
+        FileDescriptor fd = fs.open(PATH, IFileSystem.WRITE);
+        fs.write(fd, 'x');
+        fs.write(fd, data, 0, data.length);
+        remount();
+
+        // 整扇区批量写入后目录项已更新，未满一个扇区的尾部仍在缓冲区中
+        int size = fs.find(PATH).getFileSize();
+        int expected = (data.length + 1) / Layout.PER_SECTOR_SIZE * Layout.PER_SECTOR_SIZE;
+        assertEquals(expected, size);
+
+        byte[] read = readAll();
+        assertEquals('x', read[0]);
+        for (int i = 1; i < size; i++) {
+            assertEquals(data[i - 1], read[i]);
+        }
+    }
+
+    @Test
+    public void deferredMetadataNeverReferencesFreeClusters() throws IOException {
+        fs.setMetadataSyncInterval(-1);
+        byte[] data = pattern(4 * Layout.PER_CLUSTER_SIZE);
+
+        FileDescriptor fd = fs.open(PATH, IFileSystem.WRITE);
+        fs.write(fd, data, 0, data.length / 2);
+        fs.sync(fd);
+        fs.write(fd, data, data.length / 2, data.length / 2);
+        fs.flush(fd);
+        remount();
+
+        FileDescriptor found = fs.find(PATH);
+        assertEquals(data.length / 2, found.getFileSize());
+        int clusters = fs.getFat().clusterCountFrom(found.getStartingCluster());
+        assertTrue(clusters * Layout.PER_CLUSTER_SIZE >= found.getFileSize());
+    }
+}
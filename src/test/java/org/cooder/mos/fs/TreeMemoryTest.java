@@ -0,0 +1,142 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cooder.mos.device.MemoryDisk;
+import org.cooder.mos.fs.fat16.FAT16;
+import org.cooder.mos.fs.fat16.TreeMemoryManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TreeMemoryTest {
+
+    private final FileSystem fs = FileSystem.instance;
+    private TreeMemoryManager memory;
+
+    @Before
+    public void setUp() throws IOException {
+        fs.bootstrap(new MemoryDisk(), false);
+        fs.format();
+        memory = fs.getFat().getTreeMemory();
+        // 预算为0时，展开一个目录就会折叠其他未固定的目录
+        memory.setBudget(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        memory.setBudget(TreeMemoryManager.DEFAULT_BUDGET);
+        fs.shutdown();
+    }
+
+    private void touch(String... paths) throws IOException {
+        fs.close(fs.open(paths, IFileSystem.WRITE));
+    }
+
+    @Test
+    public void openFileSurvivesFolding() throws IOException {
+        FileDescriptor held = fs.open(new String[] { "a", "sub", "held" }, IFileSystem.WRITE);
+        for (int i = 0; i < 8; i++) {
+            touch("d" + i, "sub", "f");
+        }
+
+        assertTrue(memory.foldCount() > 0);
+        assertTrue(held.node.isAttached());
+        fs.write(held, 'x');
+        fs.close(held);
+
+        FileDescriptor fd = fs.open(new String[] { "a", "sub", "held" }, IFileSystem.READ);
+        assertEquals('x', fs.read(fd));
+        fs.close(fd);
+    }
+
+    @Test
+    public void pinRevalidatesFoldedNode() throws IOException {
+        touch("a", "b", "f");
+        FileDescriptor fd = fs.find(new String[] { "a", "b" });
+        touch("c", "d", "f");
+        assertFalse(fd.node.isAttached());
+
+        Object stale = fd.node;
+        fs.pin(fd);
+        assertNotSame(stale, fd.node);
+        assertTrue(fd.node.isAttached());
+
+        // 固定后不会再被折叠
+        touch("e", "g", "f");
+        assertTrue(fd.node.isAttached());
+        assertEquals(1, fs.list(fd).length);
+        fs.unpin(fd);
+    }
+
+    @Test
+    public void concurrentOpenAndCloseReleasePins() throws Exception {
+        final int threads = 4;
+        final int rounds = 200;
+        for (int t = 0; t < threads; t++) {
+            touch("s" + t, "f");
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String[] path = { "s" + t, "f" };
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        FileDescriptor fd = fs.open(path, IFileSystem.APPEND);
+                        fs.write(fd, 'x');
+                        fs.close(fd);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        FAT16 fat = fs.getFat();
+        assertFalse(memory.isPinned(fat.root));
+        for (int t = 0; t < threads; t++) {
+            assertEquals(rounds, fs.find(new String[] { "s" + t, "f" }).getFileSize());
+        }
+    }
+
+    @Test
+    public void setBudgetFoldsColdDirectories() throws IOException {
+        memory.setBudget(TreeMemoryManager.DEFAULT_BUDGET);
+        for (int i = 0; i < 4; i++) {
+            touch("d" + i, "f");
+        }
+        assertEquals(4, memory.unfoldedCount());
+
+        memory.setBudget(0);
+        assertEquals(0, memory.usage());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(fs.find(new String[] { "d" + i, "f" }) != null);
+        }
+    }
+}
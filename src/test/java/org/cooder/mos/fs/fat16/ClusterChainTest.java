@@ -0,0 +1,90 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.cooder.mos.device.MemoryDisk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterChainTest {
+
+    private FAT16 fat;
+
+    @Before
+    public void setUp() {
+        fat = new FAT16(new MemoryDisk());
+        fat.format();
+    }
+
+    /**
+     * 建立由多段连续簇组成的簇链
+     */
+    private void link(int... clusters) {
+        for (int i = 0; i < clusters.length - 1; i++) {
+            fat.writeCluster(clusters[i], clusters[i + 1]);
+        }
+        fat.writeCluster(clusters[clusters.length - 1], fat.getEndOfChain());
+    }
+
+    private int[] walk(int clusterIdx) {
+        IntList clusters = new IntList();
+        fat.forEachCluster(clusterIdx, clusters::add);
+        return clusters.toArray();
+    }
+
+    @Test
+    public void walksFragmentedChainInOrder() {
+        int[] chain = { 100, 101, 102, 300, 301, 200 };
+        link(chain);
+
+        assertArrayEquals(chain, walk(100));
+        assertArrayEquals(chain, fat.clusterFrom(100));
+        assertEquals(chain.length, fat.clusterCountFrom(100));
+    }
+
+    @Test
+    public void walkSeesExtendedChain() {
+        link(100, 101);
+        assertArrayEquals(new int[] { 100, 101 }, walk(100));
+
+        fat.writeCluster(101, 500);
+        fat.writeCluster(500, fat.getEndOfChain());
+        assertArrayEquals(new int[] { 100, 101, 500 }, walk(100));
+    }
+
+    @Test
+    public void markFreeFromKeepsHeadCluster() {
+        int[] chain = { 100, 101, 102, 300, 301, 200 };
+        link(chain);
+        int free = fat.freeClusterCount();
+
+        fat.markFreeFrom(100);
+
+        assertEquals(fat.getEndOfChain(), fat.readCluster(100));
+        for (int i = 1; i < chain.length; i++) {
+            assertEquals(FAT16.FREE_CLUSTER, fat.readCluster(chain[i]));
+        }
+        assertEquals(free + chain.length - 1, fat.freeClusterCount());
+        assertArrayEquals(new int[] { 100 }, walk(100));
+    }
+
+    @Test
+    public void markFreeFromSingleCluster() {
+        link(100);
+        int free = fat.freeClusterCount();
+
+        fat.markFreeFrom(100);
+
+        assertEquals(fat.getEndOfChain(), fat.readCluster(100));
+        assertEquals(free, fat.freeClusterCount());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectorySlotsTest {
+
+    private static final int SLOTS = DirectorySlots.SLOTS_PER_SECTOR;
+
+    private DirectoryTreeNode dir;
+    private DirectorySlots slots;
+
+    @Before
+    public void setUp() {
+        dir = new DirectoryTreeNode(null, null);
+        slots = new DirectorySlots(dir, new byte[Layout.PER_SECTOR_SIZE], new int[] { 100 });
+        dir.unfold(slots);
+    }
+
+    @Test
+    public void emptyDirectoryIsAllFree() {
+        assertEquals(SLOTS, slots.size());
+        assertEquals(SLOTS, slots.freeCount());
+        assertEquals(0, slots.nextFree());
+        assertEquals(0, slots.nextFreeRun(SLOTS));
+        assertEquals(-1, slots.nextFreeRun(SLOTS + 1));
+    }
+
+    @Test
+    public void createFillsSlotsUntilFull() {
+        for (int i = 0; i < SLOTS; i++) {
+            DirectoryTreeNode node = dir.create("f" + i, false);
+            assertEquals(i, node.getSlot());
+        }
+        assertEquals(0, slots.freeCount());
+        assertEquals(-1, slots.nextFree());
+        assertNull(dir.create("full", false));
+    }
+
+    @Test
+    public void resetFreesSlot() {
+        for (int i = 0; i < 6; i++) {
+            dir.create("f" + i, false);
+        }
+        dir.find("f1").reset();
+        dir.find("f3").reset();
+        dir.find("f4").reset();
+
+        assertEquals(SLOTS - 3, slots.freeCount());
+        assertEquals(1, slots.nextFree());
+        assertEquals(3, slots.nextFreeRun(2));
+        assertEquals(6, slots.nextFreeRun(3));
+        assertNull(dir.find("f3"));
+
+        assertEquals(1, dir.create("g", false).getSlot());
+        assertNotNull(dir.find("g"));
+    }
+
+    @Test
+    public void growAppendsFreeSlotsAndKeepsNodes() {
+        DirectoryTreeNode first = null;
+        for (int i = 0; i < SLOTS; i++) {
+            DirectoryTreeNode node = dir.create("f" + i, false);
+            if (i == 0) {
+                first = node;
+            }
+        }
+
+        slots.grow(new int[] { 200 });
+
+        assertEquals(2 * SLOTS, slots.size());
+        assertEquals(SLOTS, slots.freeCount());
+        assertEquals(2, slots.sectorCount());
+        assertEquals(200, slots.sectorAt(1));
+        assertSame(first, dir.find("f0"));
+
+        DirectoryTreeNode node = dir.create("next", false);
+        assertEquals(SLOTS, node.getSlot());
+        assertEquals(200, slots.sectorIdx(node.getSlot()));
+        assertSame(node, dir.find("next"));
+    }
+
+    @Test
+    public void loadsExistingEntries() {
+        dir.create("a", false);
+        dir.create("b", true);
+        dir.find("a").reset();
+
+        DirectoryTreeNode copy = new DirectoryTreeNode(null, null);
+        DirectorySlots loaded = new DirectorySlots(copy, slots.data().clone(), new int[] { 100 });
+        copy.unfold(loaded);
+
+        assertEquals(SLOTS - 1, loaded.freeCount());
+        assertEquals(0, loaded.nextFree());
+        assertNull(copy.find("a"));
+        assertNotNull(copy.find("b"));
+        assertTrue(copy.find("b").isDir());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMismatchedSectors() {
+        new DirectorySlots(dir, new byte[Layout.PER_SECTOR_SIZE], new int[] { 1, 2 });
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.cooder.mos.device.MemoryDisk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FatFileOutputStreamTest {
+
+    private static final int SECTOR = Layout.PER_SECTOR_SIZE;
+
+    private MemoryDisk disk;
+    private FAT16 fat;
+    private DirectoryTreeNode node;
+    private int firstSector;
+
+    @Before
+    public void setUp() {
+        disk = new MemoryDisk();
+        fat = new FAT16(disk);
+        fat.format();
+        node = fat.createTreeNode(fat.root, "f", false);
+        firstSector = Layout.getClusterDataStartSector(node.getEntry().startingCluster & 0xFFFF);
+    }
+
+    private FatFileOutputStream open() {
+        int clusterIdx = node.getEntry().startingCluster & 0xFFFF;
+        FatFileOutputStream fos = new FatFileOutputStream(disk, fat, clusterIdx, firstSector, 0, node);
+        disk.clearWrites();
+        return fos;
+    }
+
+    private static byte[] pattern(int length, int seed) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = (byte) (i * 13 + seed);
+        }
+        return b;
+    }
+
+    /**
+     * 断言文件数据的前sectors个扇区各被写入一次
+     */
+    private void assertWrittenOnce(int sectors) {
+        List<Integer> writes = disk.writes();
+        for (int i = 0; i < sectors; i++) {
+            assertEquals("sector " + i, 1, Collections.frequency(writes, firstSector + i));
+        }
+    }
+
+    private void assertContent(byte[] expected) {
+        byte[] actual = new byte[expected.length];
+        for (int off = 0; off < expected.length; off += SECTOR) {
+            byte[] sector = disk.stored(firstSector + off / SECTOR);
+            System.arraycopy(sector, 0, actual, off, Math.min(SECTOR, expected.length - off));
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void consecutiveBulkWritesWriteEachSectorOnce() throws IOException {
+        byte[] data = pattern(12 * SECTOR, 1);
+        FatFileOutputStream fos = open();
+        for (int off = 0; off < data.length; off += 4 * SECTOR) {
+            fos.write(data, off, 4 * SECTOR);
+        }
+        fos.close();
+
+        assertWrittenOnce(12);
+        assertContent(data);
+        assertEquals(data.length, node.getFileSize());
+    }
+
+    @Test
+    public void unalignedWritesWriteEachSectorOnce() throws IOException {
+        byte[] data = pattern(100 + 3 * SECTOR + 10, 7);
+        FatFileOutputStream fos = open();
+        fos.write(data, 0, 100);
+        fos.write(data, 100, 3 * SECTOR);
+        fos.write(data, 100 + 3 * SECTOR, 10);
+        fos.close();
+
+        assertWrittenOnce(4);
+        assertContent(data);
+        assertEquals(data.length, node.getFileSize());
+    }
+
+    @Test
+    public void byteWriteAfterBulkWriteKeepsData() throws IOException {
+        byte[] data = pattern(2 * SECTOR + 1, 3);
+        FatFileOutputStream fos = open();
+        fos.write(data, 0, 2 * SECTOR);
+        fos.flush();
+        fos.write(data[2 * SECTOR]);
+        fos.close();
+
+        assertWrittenOnce(2);
+        assertContent(data);
+        assertEquals(data.length, node.getFileSize());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FreeExtentIndexTest {
+
+    @Test
+    public void startsFullyUsed() {
+        FreeExtentIndex index = new FreeExtentIndex(100);
+        assertEquals(0, index.freeCount());
+        assertEquals(-1, index.first());
+        assertNull(index.findRun(1, -1));
+    }
+
+    @Test
+    public void adjacentFreeRangesMerge() {
+        FreeExtentIndex index = new FreeExtentIndex(100);
+        index.markFree(10, 5);
+        index.markFree(20, 5);
+        index.markFree(15, 5);
+
+        assertEquals(15, index.freeCount());
+        assertEquals(10, index.first());
+        assertExtent(10, 15, index.findRun(15, -1));
+
+        index.markFree(9);
+        index.markFree(25);
+        assertExtent(9, 17, index.findRun(17, -1));
+    }
+
+    @Test
+    public void markUsedSplitsExtent() {
+        FreeExtentIndex index = new FreeExtentIndex(100);
+        index.markFree(0, 10);
+        index.markUsed(4);
+
+        assertFalse(index.isFree(4));
+        assertEquals(9, index.freeCount());
+        assertExtent(0, 4, index.findRun(4, -1));
+        assertExtent(5, 5, index.findRun(5, -1));
+        // 不存在长度为6的区间时返回最长的区间
+        assertExtent(5, 5, index.findRun(6, -1));
+
+        index.markUsed(0, 4);
+        assertEquals(5, index.first());
+    }
+
+    @Test
+    public void findRunPrefersHintThenShortestFit() {
+        FreeExtentIndex index = new FreeExtentIndex(1000);
+        index.markFree(0, 100);
+        index.markFree(200, 8);
+        index.markFree(300, 20);
+
+        assertExtent(50, 10, index.findRun(10, 50));
+        // 提示位置不够长时，取能容纳的最短区间
+        assertExtent(300, 10, index.findRun(10, 205));
+        assertExtent(200, 5, index.findRun(5, -1));
+        // 都不够长时返回最长的区间
+        assertExtent(0, 100, index.findRun(500, 305));
+        assertExtent(0, 100, index.findRun(500, 250));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void markFreeRejectsFreeRange() {
+        FreeExtentIndex index = new FreeExtentIndex(100);
+        index.markFree(10, 5);
+        index.markFree(12, 5);
+    }
+
+    @Test
+    public void resetMarksEverythingUsed() {
+        FreeExtentIndex index = new FreeExtentIndex(100);
+        index.markFree(0, 100);
+        index.reset();
+
+        assertEquals(0, index.freeCount());
+        assertNull(index.findRun(1, 0));
+        index.markFree(99);
+        assertExtent(99, 1, index.findRun(1, -1));
+    }
+
+    @Test
+    public void matchesBitmapAfterRandomOperations() {
+        int size = 4096;
+        FreeExtentIndex index = new FreeExtentIndex(size);
+        boolean[] free = new boolean[size];
+        Random random = new Random(42);
+
+        for (int round = 0; round < 20000; round++) {
+            int idx = random.nextInt(size);
+            if (random.nextBoolean()) {
+                index.markFree(idx);
+                free[idx] = true;
+            } else {
+                index.markUsed(idx);
+                free[idx] = false;
+            }
+        }
+
+        int longest = 0;
+        int count = 0;
+        for (int i = 0, run = 0; i < size; i++) {
+            assertEquals(free[i], index.isFree(i));
+            run = free[i] ? run + 1 : 0;
+            longest = Math.max(longest, run);
+            count += free[i] ? 1 : 0;
+        }
+        assertEquals(count, index.freeCount());
+
+        Extent extent = index.findRun(longest, -1);
+        assertEquals(longest, extent.length);
+        for (int i = extent.start; i < extent.end(); i++) {
+            assertTrue(free[i]);
+        }
+        assertEquals(longest, index.findRun(longest + 1, -1).length);
+    }
+
+    private static void assertExtent(int start, int length, Extent extent) {
+        assertEquals(start, extent.start);
+        assertEquals(length, extent.length);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of MOS
+ * <p>
+ * Copyright (c) 2021 by cooder.org
+ * <p>
+ * For the full copyright and license information, please view the LICENSE
+ * file that was distributed with this source code.
+ */
+package org.cooder.mos.fs.fat16;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ShortNameAllocatorTest {
+
+    private static String allocate(ShortNameAllocator allocator, String lfn) {
+        return DirectoryTreeNode.byteArray2String(allocator.allocate(lfn));
+    }
+
+    @Test
+    public void firstNameUsesSixCharacterPrefix() {
+        ShortNameAllocator allocator = new ShortNameAllocator();
+        assertEquals("longfi~1", allocate(allocator, "longfilename.txt"));
+        assertEquals("ab~1", allocate(allocator, "ab"));
+    }
+
+    @Test
+    public void allocationIsRecordedOnlyAfterAdd() {
+        ShortNameAllocator allocator = new ShortNameAllocator();
+        assertEquals("longfi~1", allocate(allocator, "longfilename.txt"));
+        assertEquals("longfi~1", allocate(allocator, "longfilename.txt"));
+
+        allocator.add("longfi~1");
+        assertEquals("longfi~2", allocate(allocator, "longfile-other"));
+    }
+
+    @Test
+    public void collisionsWidenTheTail() {
+        ShortNameAllocator allocator = new ShortNameAllocator();
+        for (int i = 1; i <= 9; i++) {
+            allocator.add("report~" + i);
+        }
+        assertEquals("repor~10", allocate(allocator, "report-2021.txt"));
+
+        for (int i = 10; i <= 99; i++) {
+            allocator.add("repor~" + i);
+        }
+        assertEquals("repo~100", allocate(allocator, "report-2021.txt"));
+    }
+
+    @Test
+    public void removedTailIsReused() {
+        ShortNameAllocator allocator = new ShortNameAllocator();
+        for (int i = 1; i <= 5; i++) {
+            allocator.add("abcdef~" + i);
+        }
+        allocator.remove("abcdef~3");
+
+        assertEquals("abcdef~3", allocate(allocator, "abcdefgh"));
+        allocator.add("abcdef~3");
+        assertEquals("abcdef~6", allocate(allocator, "abcdefgh"));
+    }
+
+    @Test
+    public void namesWithoutTailAreIgnored() {
+        ShortNameAllocator allocator = new ShortNameAllocator();
+        allocator.add("abcdef");
+        allocator.add("abcdef~");
+        allocator.add("abcdef~x");
+        allocator.remove("abcdef~9");
+
+        assertEquals("abcdef~1", allocate(allocator, "abcdefgh"));
+    }
+
+    @Test
+    public void prefixesAreTrackedSeparately() {
+        ShortNameAllocator allocator = new ShortNameAllocator();
+        allocator.add("aaaaaa~1");
+
+        assertEquals("bbbbbb~1", allocate(allocator, "bbbbbbbbb"));
+        assertEquals("aaaaaa~2", allocate(allocator, "aaaaaaaaa"));
+    }
+}